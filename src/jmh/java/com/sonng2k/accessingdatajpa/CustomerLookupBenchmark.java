@@ -0,0 +1,112 @@
+package com.sonng2k.accessingdatajpa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Time and allocation per customer lookup, through managed entities (findById, findByLastName) and through
+// CustomerView projections (findViewById, findViewsByLastName).
+
+// Every lookup runs in its own read-write transaction, the way a service method calls the repository, against
+// CUSTOMERS customers in an in-memory H2 database behind the real Spring Data repository. A lookup by last name
+// finds CUSTOMERS / LAST_NAMES customers. The entity lookups pay for the persistence context on top of the query:
+// an entity entry and a snapshot per customer, and a dirty check of each of them when the transaction flushes.
+// Compare gc.alloc.rate.norm (bytes per lookup) next to the scores.
+// Run with `./gradlew jmh -PjmhIncludes=CustomerLookupBenchmark`.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomerLookupBenchmark {
+
+    private static final int CUSTOMERS = 10_000;
+    private static final int LAST_NAMES = 100;
+
+    // Auto-configures H2, Hibernate and the repositories of this package without AccessingDataJpaApplication,
+    // which would also run its demo.
+    @Configuration
+    @EnableAutoConfiguration
+    static class Jpa {
+    }
+
+    private ConfigurableApplicationContext context;
+    private CustomerRepository customers;
+    private TransactionTemplate transaction;
+    private long nextId;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(Jpa.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.datasource.url=jdbc:h2:mem:customer-lookups", "spring.main.banner-mode=off")
+                .run();
+        customers = context.getBean(CustomerRepository.class);
+        transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        List<Object[]> rows = new ArrayList<>(CUSTOMERS);
+        for (int i = 1; i <= CUSTOMERS; i++) {
+            rows.add(new Object[]{(long) i, "first" + i, lastName(i)});
+        }
+        context.getBean(JdbcTemplate.class)
+                .batchUpdate("INSERT INTO customer (id, first_name, last_name) VALUES (?, ?, ?)", rows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    private static String lastName(long id) {
+        return "last" + id % LAST_NAMES;
+    }
+
+    private long nextId() {
+        nextId = nextId % CUSTOMERS + 1;
+        return nextId;
+    }
+
+    @Benchmark
+    public Customer entityById() {
+        final long id = nextId();
+        return transaction.execute(status -> customers.findById(id));
+    }
+
+    @Benchmark
+    public CustomerView viewById() {
+        final long id = nextId();
+        return transaction.execute(status -> customers.findViewById(id));
+    }
+
+    @Benchmark
+    public List<Customer> entitiesByLastName() {
+        final String lastName = lastName(nextId());
+        return transaction.execute(status -> customers.findByLastName(lastName));
+    }
+
+    @Benchmark
+    public List<CustomerView> viewsByLastName() {
+        final String lastName = lastName(nextId());
+        return transaction.execute(status -> customers.findViewsByLastName(lastName));
+    }
+}
@@ -0,0 +1,106 @@
+package com.sonng2k.messagingrabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Card transactions posted per second by CardTransactionBatchListener, by messaging.card-transactions.batch-size.
+
+// Every invocation posts MESSAGES transactions spread over CARDS cards into an in-memory H2 database, in
+// batches of batchSize, so the scores are messages per millisecond for every batch size. A batch size of 1 is
+// what posting each message in its own transaction costs. H2 in memory has no fsync or network round trip, so
+// a real database gains considerably more from batching than this shows.
+// Run with `./gradlew jmh -PjmhIncludes=CardTransactionBatchBenchmark`.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CardTransactionBatchBenchmark {
+
+    private static final int MESSAGES = 1_000;
+    private static final int CARDS = 100;
+
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    private final RecordMessageConverter converter = new RecordMessageConverter()
+            .register(2, CardTransaction.class);
+
+    // Acks go nowhere.
+    private final Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+            new Class<?>[]{Channel.class}, (proxy, method, args) -> null);
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private CardTransactionBatchListener listener;
+    private long nextTransactionId;
+
+    @Setup
+    public void setUp() {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:card-transactions", true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE cash_card (ID BIGINT PRIMARY KEY, AMOUNT NUMBER NOT NULL, "
+                + "OWNER VARCHAR(256) NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE card_transaction (TRANSACTION_ID VARCHAR(64) PRIMARY KEY, "
+                + "CARD_ID BIGINT NOT NULL, AMOUNT NUMBER NOT NULL)");
+        for (long id = 0; id < CARDS; id++) {
+            jdbcTemplate.update("INSERT INTO cash_card (ID, AMOUNT, OWNER) VALUES (?, 0, 'bench')", id);
+        }
+        listener = new CardTransactionBatchListener(converter, jdbcTemplate,
+                new DataSourceTransactionManager(dataSource));
+    }
+
+    // Keeps the duplicate check looking at a journal of the same size in every iteration.
+    @TearDown(Level.Iteration)
+    public void clearJournal() {
+        jdbcTemplate.execute("TRUNCATE TABLE card_transaction");
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void post() {
+        List<Message> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < MESSAGES; i++) {
+            MessageProperties properties = new MessageProperties();
+            properties.setDeliveryTag(i + 1);
+            long id = nextTransactionId++;
+            batch.add(converter.toMessage(new CardTransaction("t" + id, id % CARDS, 1), properties));
+            if (batch.size() == batchSize) {
+                listener.onMessageBatch(batch, channel);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            listener.onMessageBatch(batch, channel);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.sonng2k.cashcard.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sonng2k.cashcard.CashCard;
+import com.sonng2k.cashcard.CashCardApplication;
+import com.sonng2k.cashcard.CashCardRepository;
+import com.sonng2k.cashcard.loadtest.LoadTestOptions.Operation;
+import com.sonng2k.cashcard.loadtest.LoadTestResult.Interval;
+import com.sonng2k.cashcard.loadtest.LoadTestResult.Latency;
+import com.sonng2k.cashcard.loadtest.LoadTestResult.OperationResult;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// End-to-end load test of the Cash Card API.
+
+// It boots CashCardApplication on a random port against an in-memory H2 database, creates --owners HTTP Basic
+// users (CARD-OWNER, just like the users in SecurityConfig) with --cards cards each, and then sends requests in
+// an open model: arrivals follow a Poisson process at --rate per second no matter how fast the server answers,
+// so queueing shows up as latency instead of silently lowering the offered load. Latencies go into
+// HdrHistograms and the run is written to --out as JSON (see LoadTestResult).
+public class CashCardLoadTest {
+
+    private static final String PASSWORD = "loadtest";
+
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(2);
+
+    private final LoadTestOptions options;
+    private final HttpClient client;
+    private final URI baseUri;
+    private final List<Owner> owners;
+    private final Operation[] weightedOperations;
+
+    private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> totals = new EnumMap<>(Operation.class);
+    private final Map<Operation, Map<Integer, LongAdder>> statuses = new EnumMap<>(Operation.class);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+
+    CashCardLoadTest(LoadTestOptions options, HttpClient client, URI baseUri, List<Owner> owners) {
+        this.options = options;
+        this.client = client;
+        this.baseUri = baseUri;
+        this.owners = owners;
+        this.weightedOperations = weightedOperations(options.mix());
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(HIGHEST_LATENCY_MICROS, 3));
+            totals.put(operation, new Histogram(HIGHEST_LATENCY_MICROS, 3));
+            statuses.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+
+        Map<String, Object> properties = new LinkedHashMap<>();
+        properties.put("server.port", 0);
+        properties.put("spring.datasource.url", "jdbc:h2:mem:cashcard-loadtest;DB_CLOSE_DELAY=-1");
+        properties.put("logging.level.root", "WARN");
+        properties.putAll(options.applicationProperties());
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(CashCardApplication.class)
+                .properties(properties)
+                .run()) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            List<Owner> owners = seed(context, options);
+
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.max(4, Runtime.getRuntime().availableProcessors()));
+            HttpClient client = HttpClient.newBuilder()
+                    .executor(executor)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            try {
+                LoadTestResult result = new CashCardLoadTest(options, client, URI.create("http://localhost:" + port),
+                        owners).run();
+                write(result, options);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static List<Owner> seed(ConfigurableApplicationContext context, LoadTestOptions options) {
+        InMemoryUserDetailsManager users = context.getBean(InMemoryUserDetailsManager.class);
+        PasswordEncoder passwordEncoder = context.getBean(PasswordEncoder.class);
+        CashCardRepository cashCardRepository = context.getBean(CashCardRepository.class);
+        SplittableRandom random = new SplittableRandom(42);
+
+        String encodedPassword = passwordEncoder.encode(PASSWORD);
+        List<Owner> owners = new ArrayList<>();
+        for (int i = 0; i < options.owners(); i++) {
+            String name = "loadtest-owner-" + i;
+            users.createUser(User.withUsername(name).password(encodedPassword).roles("CARD-OWNER").build());
+
+            List<CashCard> cards = new ArrayList<>();
+            for (int j = 0; j < options.cardsPerOwner(); j++) {
+                cards.add(new CashCard(null, amount(random), name));
+            }
+            Owner owner = new Owner(name);
+            cashCardRepository.saveAll(cards).forEach(card -> owner.add(card.id()));
+            owners.add(owner);
+        }
+        System.out.printf("Seeded %d owners x %d cards%n", options.owners(), options.cardsPerOwner());
+        return owners;
+    }
+
+    LoadTestResult run() throws InterruptedException {
+        Instant startedAt = Instant.now();
+        long warmupNanos = options.warmup().toNanos();
+        long start = System.nanoTime();
+        long end = start + warmupNanos + options.duration().toNanos();
+
+        Thread generator = new Thread(() -> generate(start, end), "loadtest-generator");
+        generator.start();
+
+        // Every --interval, move what the recorders collected into the timeline, and into the totals once the
+        // warm-up is over. The end of the warm-up is always a boundary so no measured request is thrown away.
+        List<Long> boundaries = new ArrayList<>();
+        long intervalNanos = options.interval().toNanos();
+        for (long t = intervalNanos; t < warmupNanos; t += intervalNanos) {
+            boundaries.add(t);
+        }
+        for (long t = warmupNanos; t < end - start; t += intervalNanos) {
+            if (t > 0) {
+                boundaries.add(t);
+            }
+        }
+        List<Interval> timeline = new ArrayList<>();
+        long previous = 0;
+        for (long boundary : boundaries) {
+            sleepUntil(start + boundary);
+            timeline.add(collect(boundary, boundary - previous, boundary <= warmupNanos));
+            previous = boundary;
+        }
+        generator.join();
+
+        // Let outstanding requests finish so their (long) latencies are part of the result.
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+        long elapsed = System.nanoTime() - start;
+        timeline.add(collect(elapsed, elapsed - previous, false));
+
+        return result(startedAt, timeline);
+    }
+
+    private void generate(long start, long end) {
+        SplittableRandom random = new SplittableRandom();
+        double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / options.rate();
+        long next = start;
+        while (next < end) {
+            long now = System.nanoTime();
+            if (next > now) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            Operation operation = weightedOperations[random.nextInt(weightedOperations.length)];
+            if (inFlight.get() >= options.maxInFlight()) {
+                dropped.incrementAndGet();
+            } else {
+                send(operation, owners.get(random.nextInt(owners.size())), random, next);
+            }
+            next += (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+        }
+    }
+
+    private void send(Operation operation, Owner owner, SplittableRandom random, long intendedStart) {
+        Long cardId = owner.randomCard(random);
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .header("Authorization", owner.authorization)
+                .timeout(Duration.ofSeconds(30));
+        switch (operation) {
+            case GET -> request.uri(cardUri(cardId)).GET();
+            case LIST -> request.uri(baseUri.resolve("/cashcards?page=" + random.nextInt(
+                    Math.max(1, owner.size() / 20)) + "&size=20")).GET();
+            case POST -> request.uri(baseUri.resolve("/cashcards"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"amount\":" + amount(random) + "}"));
+            case PUT -> request.uri(cardUri(cardId))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString("{\"amount\":" + amount(random) + "}"));
+            case DELETE -> request.uri(cardUri(cardId)).DELETE();
+        }
+
+        inFlight.incrementAndGet();
+        client.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, failure) -> {
+                    long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+                    recorders.get(operation).recordValue(Math.min(micros, HIGHEST_LATENCY_MICROS));
+                    int status = failure != null ? -1 : response.statusCode();
+                    statuses.get(operation).computeIfAbsent(status, s -> new LongAdder()).increment();
+                    if (operation == Operation.POST && status == 201) {
+                        response.headers().firstValue("Location").ifPresent(owner::addFromLocation);
+                    } else if (operation == Operation.DELETE && status == 204) {
+                        owner.remove(cardId);
+                    }
+                    inFlight.decrementAndGet();
+                });
+    }
+
+    private URI cardUri(Long cardId) {
+        return baseUri.resolve("/cashcards/" + (cardId != null ? cardId : Long.MAX_VALUE));
+    }
+
+    private Interval collect(long elapsedNanos, long lengthNanos, boolean warmup) {
+        Histogram interval = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = recorders.get(operation).getIntervalHistogram();
+            interval.add(histogram);
+            if (!warmup) {
+                totals.get(operation).add(histogram);
+            }
+        }
+        return new Interval(elapsedNanos / 1e9, warmup, interval.getTotalCount(),
+                interval.getTotalCount() / (lengthNanos / 1e9), Latency.of(interval));
+    }
+
+    private LoadTestResult result(Instant startedAt, List<Interval> timeline) {
+        Histogram all = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+        Map<String, OperationResult> operations = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = totals.get(operation);
+            all.add(histogram);
+            Map<String, Long> counts = new TreeMap<>();
+            statuses.get(operation).forEach((status, count) ->
+                    counts.put(status < 0 ? "error" : String.valueOf(status), count.sum()));
+            operations.put(operation.name(), new OperationResult(histogram.getTotalCount(), counts,
+                    Latency.of(histogram)));
+        }
+
+        double measuredSeconds = options.duration().toNanos() / 1e9;
+        Map<String, Object> optionValues = new LinkedHashMap<>();
+        optionValues.put("owners", options.owners());
+        optionValues.put("cardsPerOwner", options.cardsPerOwner());
+        optionValues.put("rate", options.rate());
+        optionValues.put("durationSeconds", options.duration().toSeconds());
+        optionValues.put("warmupSeconds", options.warmup().toSeconds());
+        optionValues.put("mix", options.mix());
+        optionValues.put("applicationProperties", options.applicationProperties());
+        return new LoadTestResult(startedAt.toString(), optionValues, measuredSeconds, all.getTotalCount(),
+                dropped.get(), all.getTotalCount() / measuredSeconds, Latency.of(all), operations, timeline);
+    }
+
+    private static void write(LoadTestResult result, LoadTestOptions options) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Files.createDirectories(options.out().toAbsolutePath().getParent());
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(options.out().toFile(), result);
+
+        System.out.printf("%-8s %10s %10s %10s %10s %10s%n", "", "requests", "p50 ms", "p99 ms", "p99.9 ms",
+                "max ms");
+        result.operations().forEach((operation, stats) -> System.out.printf("%-8s %10d %10.2f %10.2f %10.2f %10.2f%n",
+                operation, stats.requests(), stats.latency().p50(), stats.latency().p99(),
+                stats.latency().p999(), stats.latency().max()));
+        System.out.printf("%.1f requests/s over %.0f s (%d dropped), results in %s%n",
+                result.throughputPerSecond(), result.measuredSeconds(), result.dropped(), options.out());
+    }
+
+    private static Operation[] weightedOperations(Map<Operation, Integer> mix) {
+        List<Operation> operations = new ArrayList<>();
+        mix.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                operations.add(operation);
+            }
+        });
+        return operations.toArray(Operation[]::new);
+    }
+
+    private static double amount(SplittableRandom random) {
+        return random.nextInt(1, 100_000) / 100.0;
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    // The cards an owner currently has, as far as the load test knows. POST adds to it and DELETE removes from
+    // it, so GET, PUT and DELETE mostly hit cards that exist.
+    static final class Owner {
+        final String name;
+        final String authorization;
+        private final List<Long> cardIds = new ArrayList<>();
+
+        Owner(String name) {
+            this.name = name;
+            this.authorization = "Basic " + Base64.getEncoder()
+                    .encodeToString((name + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8));
+        }
+
+        synchronized void add(Long cardId) {
+            cardIds.add(cardId);
+        }
+
+        synchronized void addFromLocation(String location) {
+            add(Long.valueOf(location.substring(location.lastIndexOf('/') + 1)));
+        }
+
+        synchronized void remove(Long cardId) {
+            int index = cardIds.indexOf(cardId);
+            if (index >= 0) {
+                cardIds.set(index, cardIds.get(cardIds.size() - 1));
+                cardIds.remove(cardIds.size() - 1);
+            }
+        }
+
+        synchronized Long randomCard(SplittableRandom random) {
+            return cardIds.isEmpty() ? null : cardIds.get(random.nextInt(cardIds.size()));
+        }
+
+        synchronized int size() {
+            return cardIds.size();
+        }
+    }
+}
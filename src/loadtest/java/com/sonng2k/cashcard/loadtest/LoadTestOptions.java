@@ -0,0 +1,101 @@
+package com.sonng2k.cashcard.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+// Command line options of the load test, all given as --name=value:
+//
+//   --owners=10            number of card owners (HTTP Basic users) to create
+//   --cards=100            cards seeded per owner
+//   --rate=200             mean arrival rate in requests per second (Poisson arrivals, open model)
+//   --duration=60          measured seconds, after the warm-up
+//   --warmup=10            seconds of load whose latencies are thrown away
+//   --interval=5           seconds per entry in the timeline of the report
+//   --mix=get=60,list=20,post=10,put=8,delete=2
+//   --max-in-flight=10000  requests beyond this many outstanding ones are counted as dropped
+//   --out=build/loadtest/cashcard-<timestamp>.json
+//   --app.<property>=value passed to the application, e.g. --app.logging.level.root=INFO
+record LoadTestOptions(int owners,
+                       int cardsPerOwner,
+                       double rate,
+                       Duration duration,
+                       Duration warmup,
+                       Duration interval,
+                       Map<Operation, Integer> mix,
+                       int maxInFlight,
+                       Path out,
+                       Map<String, String> applicationProperties) {
+
+    private static final Set<String> NAMES =
+            Set.of("owners", "cards", "rate", "duration", "warmup", "interval", "mix", "max-in-flight", "out");
+
+    enum Operation {
+        GET, LIST, POST, PUT, DELETE
+    }
+
+    static LoadTestOptions parse(String... args) {
+        Map<String, String> values = new LinkedHashMap<>();
+        Map<String, String> applicationProperties = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (name.startsWith("app.")) {
+                applicationProperties.put(name.substring("app.".length()), value);
+            } else {
+                values.put(name, value);
+            }
+        }
+
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        LoadTestOptions options = new LoadTestOptions(
+                Integer.parseInt(values.getOrDefault("owners", "10")),
+                Integer.parseInt(values.getOrDefault("cards", "100")),
+                Double.parseDouble(values.getOrDefault("rate", "200")),
+                Duration.ofSeconds(Long.parseLong(values.getOrDefault("duration", "60"))),
+                Duration.ofSeconds(Long.parseLong(values.getOrDefault("warmup", "10"))),
+                Duration.ofSeconds(Long.parseLong(values.getOrDefault("interval", "5"))),
+                parseMix(values.getOrDefault("mix", "get=60,list=20,post=10,put=8,delete=2")),
+                Integer.parseInt(values.getOrDefault("max-in-flight", "10000")),
+                Path.of(values.getOrDefault("out", "build/loadtest/cashcard-" + timestamp + ".json")),
+                applicationProperties);
+
+        Set<String> unknown = new TreeSet<>(values.keySet());
+        unknown.removeAll(NAMES);
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + unknown);
+        }
+        if (options.owners() < 1 || options.cardsPerOwner() < 1 || options.rate() <= 0) {
+            throw new IllegalArgumentException("owners, cards and rate must be positive");
+        }
+        return options;
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight in --mix but got " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight in --mix: " + entry);
+            }
+            weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), weight);
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("--mix needs at least one operation with a positive weight");
+        }
+        return weights;
+    }
+}
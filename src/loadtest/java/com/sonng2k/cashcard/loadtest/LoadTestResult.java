@@ -0,0 +1,49 @@
+package com.sonng2k.cashcard.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.List;
+import java.util.Map;
+
+// The JSON document written at the end of a run. Keep field names stable so results of different runs (and
+// different commits) can be compared with jq or a spreadsheet.
+record LoadTestResult(String startedAt,
+                      Map<String, Object> options,
+                      double measuredSeconds,
+                      long requests,
+                      long dropped,
+                      double throughputPerSecond,
+                      Latency latency,
+                      Map<String, OperationResult> operations,
+                      List<Interval> timeline) {
+
+    record OperationResult(long requests, Map<String, Long> statuses, Latency latency) {
+    }
+
+    // One entry per --interval, including the warm-up, so cold-start behaviour stays visible in the report.
+    record Interval(double elapsedSeconds, boolean warmup, long requests, double throughputPerSecond,
+                    Latency latency) {
+    }
+
+    // All latencies are in milliseconds, measured from the moment a request was scheduled to be sent (not the
+    // moment it was actually sent), so a stalled server can't hide its queueing delay (coordinated omission).
+    record Latency(double mean, double p50, double p90, double p99, double p999, double max) {
+
+        static Latency of(Histogram histogram) {
+            if (histogram.getTotalCount() == 0) {
+                return new Latency(0, 0, 0, 0, 0, 0);
+            }
+            return new Latency(
+                    millis(histogram.getMean()),
+                    millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(90)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()));
+        }
+
+        private static double millis(double micros) {
+            return Math.round(micros) / 1000.0;
+        }
+    }
+}
@@ -6,6 +6,10 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.stream.Stream;
 
 @SpringBootApplication
 public class AccessingDataJpaApplication {
@@ -17,7 +21,10 @@ public class AccessingDataJpaApplication {
     }
 
     @Bean
-    public CommandLineRunner demo(CustomerRepository repository) {
+    public CommandLineRunner demo(CustomerRepository repository, PlatformTransactionManager transactionManager) {
+        // The streams of CustomerStreams need a transaction around them (see CustomerStreams).
+        TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
         return args -> {
             repository.save(new Customer("Jack", "Bauer"));
             repository.save(new Customer("Chloe", "O'Brian"));
@@ -25,11 +32,13 @@ public class AccessingDataJpaApplication {
             repository.save(new Customer("David", "Palmer"));
             repository.save(new Customer("Michelle", "Dessler"));
 
-            log.info("Customers found with findAll():");
-            log.info("-------------------------------");
-            for (Customer customer : repository.findAll()) {
-                log.info(customer.toString());
-            }
+            log.info("Customers found with streamAll():");
+            log.info("---------------------------------");
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<Customer> customers = repository.streamAll()) {
+                    customers.forEach(customer -> log.info(customer.toString()));
+                }
+            });
             log.info("");
 
             Customer customer = repository.findById(1L);
@@ -38,10 +47,12 @@ public class AccessingDataJpaApplication {
             log.info(customer.toString());
             log.info("");
 
-            log.info("Customer found with findByLastName('Bauer'):");
-            log.info("--------------------------------------------");
-            repository.findByLastName("Bauer").forEach(bauer -> {
-                log.info(bauer.toString());
+            log.info("Customer found with streamByLastName('Bauer'):");
+            log.info("-----------------------------------------------");
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<Customer> bauers = repository.streamByLastName("Bauer")) {
+                    bauers.forEach(bauer -> log.info(bauer.toString()));
+                }
             });
             // for (Customer bauer : repository.findByLastName("Bauer")) {
             //  log.info(bauer.toString());
@@ -0,0 +1,59 @@
+package com.sonng2k.accessingdatajpa;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+// GET /customers[?lastName=...] returns a JSON array of customers, written to the response while the rows are
+// read from the database, so neither the server nor the database driver holds the whole table in memory.
+//
+// The body is written on an async request thread. A very large export can outlast the default async timeout;
+// raise spring.mvc.async.request-timeout for those.
+@RestController
+public class CustomerController {
+
+    private final CustomerRepository repository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public CustomerController(CustomerRepository repository, ObjectMapper objectMapper,
+                              PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    @GetMapping("/customers")
+    public ResponseEntity<StreamingResponseBody> findAll(@RequestParam(required = false) String lastName) {
+        final StreamingResponseBody body = out -> readOnlyTransaction.executeWithoutResult(status -> {
+            try (Stream<Customer> customers = lastName == null
+                    ? repository.streamAll()
+                    : repository.streamByLastName(lastName);
+                 JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+                // Spring closes the response stream itself.
+                json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                json.writeStartArray();
+                for (Iterator<Customer> iterator = customers.iterator(); iterator.hasNext(); ) {
+                    json.writeObject(iterator.next());
+                }
+                json.writeEndArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+}
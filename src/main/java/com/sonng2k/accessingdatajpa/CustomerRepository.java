@@ -1,12 +1,42 @@
 package com.sonng2k.accessingdatajpa;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
-public interface CustomerRepository extends CrudRepository<Customer, Long> {
+// findAll() and findByLastName() load every matching row into memory at once. To read a large part of the
+// table, use the streams of CustomerStreams instead.
+//
+// findByLastName() and findById() hand out managed entities: Hibernate keeps each one in the persistence context
+// with a snapshot of its state, and compares every one of them with its snapshot when the transaction flushes.
+// Callers that only read customers should use the CustomerView methods instead, which skip all of that: their
+// constructor expression builds plain CustomerView objects, so no entity is managed, snapshotted or dirty-checked
+// (which is also why they need no read-only hint). What remains is the flush Hibernate does before a query:
+//   - the transaction is read-only, so Hibernate sets its session to flush mode MANUAL (it never flushes) and the
+//     JDBC connection is marked read-only;
+//   - the flush mode hint does the same for the query itself when it joins a caller's read-write transaction.
+//     With FlushMode MANUAL, the query does not see changes that caller made but has not flushed yet.
+public interface CustomerRepository extends CrudRepository<Customer, Long>, CustomerStreams {
 
     List<Customer> findByLastName(String lastName);
 
     Customer findById(long id);
+
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "MANUAL"))
+    @Query("select new com.sonng2k.accessingdatajpa.CustomerView(c.id, c.firstName, c.lastName) "
+            + "from Customer c where c.lastName = :lastName")
+    List<CustomerView> findViewsByLastName(@Param("lastName") String lastName);
+
+    @Transactional(readOnly = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "MANUAL"))
+    @Query("select new com.sonng2k.accessingdatajpa.CustomerView(c.id, c.firstName, c.lastName) "
+            + "from Customer c where c.id = :id")
+    CustomerView findViewById(@Param("id") long id);
 }
@@ -0,0 +1,21 @@
+package com.sonng2k.accessingdatajpa;
+
+import java.util.stream.Stream;
+
+// Memory-bounded alternatives to findAll() and findByLastName(), for jobs that read the whole customer table.
+//
+// The rows are read through a forward-only JDBC cursor, FETCH_SIZE rows per round trip, and every Customer is
+// detached from the persistence context as soon as the stream hands it out. Neither the driver nor Hibernate
+// holds on to rows that were already consumed, so memory stays flat however many rows there are.
+//
+// Call them inside a transaction (the cursor lives on its connection) and close the stream when done, e.g.
+//   try (Stream<Customer> customers = repository.streamAll()) { ... }
+// Customers handed out are detached: changes to them are not saved, and lazy associations can't be loaded.
+public interface CustomerStreams {
+
+    int FETCH_SIZE = 1_000;
+
+    Stream<Customer> streamAll();
+
+    Stream<Customer> streamByLastName(String lastName);
+}
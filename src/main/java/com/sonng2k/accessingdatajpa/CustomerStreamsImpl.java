@@ -0,0 +1,43 @@
+package com.sonng2k.accessingdatajpa;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import org.hibernate.jpa.HibernateHints;
+
+import java.util.stream.Stream;
+
+// Spring Data finds this implementation of the CustomerStreams fragment by its name and mixes it into
+// CustomerRepository.
+class CustomerStreamsImpl implements CustomerStreams {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Stream<Customer> streamAll() {
+        return stream(entityManager.createQuery("select c from Customer c order by c.id", Customer.class));
+    }
+
+    @Override
+    public Stream<Customer> streamByLastName(String lastName) {
+        return stream(entityManager
+                .createQuery("select c from Customer c where c.lastName = :lastName", Customer.class)
+                .setParameter("lastName", lastName));
+    }
+
+    // getResultStream() scrolls a forward-only ResultSet instead of building a list. The fetch size is what
+    // keeps the driver from buffering the whole result (PostgreSQL honours it inside a transaction, MySQL
+    // needs useCursorFetch=true; H2 buffers at most MAX_MEMORY_ROWS and spills the rest to disk), and read-only
+    // entities keep no snapshot for dirty checking.
+    private Stream<Customer> stream(TypedQuery<Customer> query) {
+        return query
+                .setHint(HibernateHints.HINT_FETCH_SIZE, FETCH_SIZE)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream()
+                .map(customer -> {
+                    entityManager.detach(customer);
+                    return customer;
+                });
+    }
+}
@@ -0,0 +1,7 @@
+package com.sonng2k.accessingdatajpa;
+
+// A read-only copy of a Customer's columns, for lookups that only read them (see CustomerRepository).
+// Hibernate builds these straight from the rows: they are not entities, so there is nothing to manage, snapshot
+// or dirty-check, and a transaction can hold any number of them without its persistence context growing.
+public record CustomerView(Long id, String firstName, String lastName) {
+}
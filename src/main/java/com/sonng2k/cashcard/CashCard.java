@@ -1,6 +1,11 @@
 package com.sonng2k.cashcard;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
 
+// Both Spring Data JPA and Spring Data JDBC are on the classpath, so Spring Data runs in strict mode and only
+// picks up a repository when its domain type carries the module's annotation. @Table marks CashCard as a
+// Spring Data JDBC aggregate.
+@Table("cash_card")
 public record CashCard(@Id Long id, Double amount, String owner) {
 }
@@ -0,0 +1,19 @@
+package com.sonng2k.cashcard;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.PropertySource;
+
+// The Cash Card API lives next to the other guides in this project, so it gets its own application class.
+// Tests in this package (@SpringBootTest, @DataJdbcTest, ...) find it as their @SpringBootConfiguration.
+
+// cashcard.properties holds the settings that only make sense for the Cash Card API, such as where the
+// cash_card schema lives, so they don't leak into the other applications.
+@SpringBootApplication
+@PropertySource("classpath:cashcard.properties")
+public class CashCardApplication {
+
+    public static void main(String[] args) {
+        SpringApplication.run(CashCardApplication.class, args);
+    }
+}
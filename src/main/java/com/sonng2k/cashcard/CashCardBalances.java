@@ -0,0 +1,19 @@
+package com.sonng2k.cashcard;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.function.UnaryOperator;
+
+// Read-modify-write of several cards' amounts as one atomic step, for CashCardTransfers.
+//
+// updateBalances() locks the given cards of the owner, hands their current amounts (by ID, in ID order) to
+// change, and stores the amounts change returns. Nobody else can change those cards in between, and locks are
+// always taken in ascending ID order, so concurrent calls over overlapping cards wait for each other instead of
+// deadlocking. If change throws, nothing is stored. Returns the stored amounts, or null (without calling change)
+// if one of the cards doesn't exist or belongs to someone else.
+public interface CashCardBalances {
+
+    Map<Long, BigDecimal> updateBalances(String owner, SortedSet<Long> ids,
+                                         UnaryOperator<Map<Long, BigDecimal>> change);
+}
@@ -0,0 +1,64 @@
+package com.sonng2k.cashcard;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+
+// Spring Data finds this implementation of the CashCardBalances fragment by its name and mixes it into
+// CashCardRepository.
+//
+// Two statements per call, in one transaction: SELECT ... FOR UPDATE locks the rows in ID order, and one batched
+// UPDATE writes the change of every card whose amount changed.
+class CashCardBalancesImpl implements CashCardBalances {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    CashCardBalancesImpl(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public Map<Long, BigDecimal> updateBalances(String owner, SortedSet<Long> ids,
+                                                UnaryOperator<Map<Long, BigDecimal>> change) {
+        return transactionTemplate.execute(status -> {
+            Map<Long, BigDecimal> locked = new TreeMap<>();
+            jdbcTemplate.query("SELECT ID, AMOUNT FROM cash_card WHERE OWNER = :owner AND ID IN (:ids) ORDER BY ID "
+                            + "FOR UPDATE", Map.of("owner", owner, "ids", ids),
+                    row -> {
+                        locked.put(row.getLong(1), row.getBigDecimal(2));
+                    });
+            if (locked.size() != ids.size()) {
+                return null;
+            }
+
+            Map<Long, BigDecimal> balances = new TreeMap<>(change.apply(new TreeMap<>(locked)));
+            List<Map<String, Object>> updates = new ArrayList<>();
+            balances.forEach((id, balance) -> {
+                BigDecimal difference = balance.subtract(locked.get(id));
+                if (difference.signum() != 0) {
+                    Map<String, Object> update = new HashMap<>();
+                    update.put("id", id);
+                    update.put("change", difference);
+                    updates.add(update);
+                }
+            });
+            if (!updates.isEmpty()) {
+                jdbcTemplate.batchUpdate("UPDATE cash_card SET AMOUNT = AMOUNT + :change WHERE ID = :id",
+                        updates.toArray(Map[]::new));
+            }
+            return balances;
+        });
+    }
+}
@@ -1,6 +1,6 @@
 package com.sonng2k.cashcard;
 
-import org.springframework.data.domain.Page;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -10,19 +10,46 @@ import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.URI;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/cashcards")
 public class CashCardController {
+    // The only properties a client may sort by. Each one is backed by an (OWNER, <property>) index in
+    // schema.sql, so a client can't pick a sort that forces the database to sort every row of the table.
+    static final Set<String> SORTABLE_PROPERTIES = Set.of("amount", "id");
+
+    private static final Sort DEFAULT_SORT = Sort.by(Sort.Direction.ASC, "amount");
+
     private final CashCardRepository cashCardRepository;
+    private final CashCardWriteBehind writeBehind;
+    private final CashCardReads cashCardReads;
+    private final CashCardTransfers cashCardTransfers;
+    private final int maxLookupIds;
 
-    public CashCardController(CashCardRepository cashCardRepository) {
+    public CashCardController(CashCardRepository cashCardRepository, CashCardWriteBehind writeBehind,
+                              CashCardReads cashCardReads, CashCardTransfers cashCardTransfers,
+                              @Value("${cashcard.multi-get.max-ids:500}") int maxLookupIds) {
         this.cashCardRepository = cashCardRepository;
+        this.writeBehind = writeBehind;
+        this.cashCardReads = cashCardReads;
+        this.cashCardTransfers = cashCardTransfers;
+        this.maxLookupIds = maxLookupIds;
     }
 
+    // Cards configured for write-behind are read from (and written to) their in-memory state, which is always at
+    // least as new as the database row.
     private CashCard findCashCard(Long requestedId, Principal principal) {
-        return cashCardRepository.findByIdAndOwner(requestedId, principal.getName());
+        if (writeBehind.manages(requestedId)) {
+            return writeBehind.find(requestedId, principal.getName());
+        }
+        return cashCardReads.findByIdAndOwner(requestedId, principal.getName());
     }
 
     @GetMapping("/{requestedId}")
@@ -35,6 +62,36 @@ public class CashCardController {
         }
     }
 
+    // Many cards in one request and one query: GET /cashcards?ids=99,100,101, or POST /cashcards/lookup with a
+    // JSON array of IDs when the list is too long for a URL. At most cashcard.multi-get.max-ids IDs per request;
+    // more are rejected with 400 Bad Request.
+    @GetMapping(params = "ids")
+    public ResponseEntity<CashCardLookup> findAllById(@RequestParam List<Long> ids, Principal principal) {
+        return lookup(ids, principal);
+    }
+
+    @PostMapping("/lookup")
+    public ResponseEntity<CashCardLookup> lookup(@RequestBody List<Long> ids, Principal principal) {
+        if (ids.isEmpty() || ids.size() > maxLookupIds || ids.contains(null)) {
+            return ResponseEntity.badRequest().build();
+        }
+        final Set<Long> requestedIds = new LinkedHashSet<>(ids);
+        final Map<Long, CashCard> found = writeBehind
+                .overlay(cashCardRepository.findAllByOwnerAndIdIn(principal.getName(), requestedIds))
+                .stream()
+                .collect(Collectors.toMap(CashCard::id, Function.identity()));
+        final List<CashCard> cards = new ArrayList<>(found.size());
+        final List<Long> missing = new ArrayList<>();
+        for (Long id : requestedIds) {
+            if (found.containsKey(id)) {
+                cards.add(found.get(id));
+            } else {
+                missing.add(id);
+            }
+        }
+        return ResponseEntity.ok(new CashCardLookup(cards, missing));
+    }
+
     /*
      * If u don't remove the existing findAll() Controller method, we'll have two
      * methods mapped to the same
@@ -69,15 +126,25 @@ public class CashCardController {
      * The net result is that if any of the three required parameters are not passed
      * to the application, then
      * reasonable defaults will be provided.
+     *
+     * A `sort` on a property outside SORTABLE_PROPERTIES is rejected with 400 Bad Request.
      */
     @GetMapping
     public ResponseEntity<List<CashCard>> findAll(Pageable pageable, Principal principal) {
-        final Page<CashCard> page = cashCardRepository.findByOwner(principal.getName(),
+        final Sort sort = pageable.getSortOr(DEFAULT_SORT);
+        if (!isSortable(sort)) {
+            return ResponseEntity.badRequest().build();
+        }
+        final List<CashCard> page = cashCardReads.findByOwner(principal.getName(),
                 PageRequest.of(
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
-                        pageable.getSortOr(Sort.by(Sort.Direction.ASC, "amount"))));
-        return ResponseEntity.ok(page.getContent());
+                        sort));
+        return ResponseEntity.ok(writeBehind.overlay(page));
+    }
+
+    private static boolean isSortable(Sort sort) {
+        return sort.stream().allMatch(order -> SORTABLE_PROPERTIES.contains(order.getProperty()));
     }
 
     @PostMapping
@@ -85,6 +152,7 @@ public class CashCardController {
             UriComponentsBuilder ucb, Principal principal) {
         final CashCard cashCardWithOwner = new CashCard(null, newCashCardRequest.amount(), principal.getName());
         final CashCard savedCashCard = cashCardRepository.save(cashCardWithOwner);
+        cashCardReads.forget(principal.getName());
         final URI locationOfNewCashCard = ucb
                 .path("cashcards/{id}")
                 .buildAndExpand(savedCashCard.id())
@@ -92,13 +160,26 @@ public class CashCardController {
         return ResponseEntity.created(locationOfNewCashCard).build();
     }
 
+    // Moves money between the caller's cards atomically: either every transfer of the request happens, or none
+    // does. Answers the involved cards with their new amounts; see CashCardTransfers for the error statuses.
+    @PostMapping("/transfers")
+    public ResponseEntity<List<CashCard>> transfer(@RequestBody List<CashCardTransfer> transfers,
+            Principal principal) {
+        return ResponseEntity.ok(cashCardTransfers.transfer(principal.getName(), transfers));
+    }
+
     @PutMapping("/{requestedId}")
     private ResponseEntity<Void> putCashCard(@PathVariable Long requestedId, @RequestBody CashCard cashCardUpdate,
             Principal principal) {
         final CashCard cashCard = findCashCard(requestedId, principal);
         if (cashCard != null) {
             CashCard updatedCashCard = new CashCard(cashCard.id(), cashCardUpdate.amount(), principal.getName());
-            cashCardRepository.save(updatedCashCard);
+            if (writeBehind.manages(cashCard.id())) {
+                writeBehind.update(updatedCashCard);
+            } else {
+                cashCardRepository.save(updatedCashCard);
+            }
+            cashCardReads.forget(principal.getName());
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.notFound().build();
@@ -107,7 +188,11 @@ public class CashCardController {
     @DeleteMapping("/{id}")
     private ResponseEntity<Void> deleteCashCard(@PathVariable Long id, Principal principal) {
         if (cashCardRepository.existsByIdAndOwner(id, principal.getName())) {
+            if (writeBehind.manages(id)) {
+                writeBehind.evict(id);
+            }
             cashCardRepository.deleteById(id);
+            cashCardReads.forget(principal.getName());
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.notFound().build();
@@ -0,0 +1,59 @@
+package com.sonng2k.cashcard;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.relational.core.mapping.event.BeforeConvertCallback;
+import org.springframework.stereotype.Component;
+
+// Assigns the ID of every new CashCard before Spring Data JDBC inserts it, instead of letting the database
+// generate one. With the cash_card table split over several shards (see the sharding package), an IDENTITY
+// column would hand out the same IDs on every shard, and an owner's cards could not move between shards.
+
+// The IDs are Snowflake-style, 63 bits wide:
+//   41 bits  milliseconds since EPOCH_MILLIS (good for about 69 years)
+//   10 bits  cashcard.id.node-id, unique per running instance (0-1023)
+//   12 bits  sequence within the millisecond (4096 IDs per millisecond per node)
+// so they are unique across shards and instances, and roughly ordered by creation time.
+// They are larger than 2^53, so JavaScript clients must not parse them as Number.
+@Component
+public class CashCardIdGenerator implements BeforeConvertCallback<CashCard> {
+
+    static final long EPOCH_MILLIS = 1_700_000_000_000L; // 2023-11-14T22:13:20Z
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    private final long node;
+    private long lastMillis = -1;
+    private long sequence;
+
+    public CashCardIdGenerator(@Value("${cashcard.id.node-id:0}") int nodeId) {
+        if (nodeId < 0 || nodeId >= (1 << NODE_BITS)) {
+            throw new IllegalArgumentException("cashcard.id.node-id must be between 0 and 1023 but was " + nodeId);
+        }
+        this.node = nodeId;
+    }
+
+    @Override
+    public CashCard onBeforeConvert(CashCard cashCard) {
+        return cashCard.id() != null ? cashCard : new CashCard(nextId(), cashCard.amount(), cashCard.owner());
+    }
+
+    public synchronized long nextId() {
+        long now = System.currentTimeMillis();
+        // Never go backwards, even if the wall clock does: keep counting in the last millisecond we used.
+        if (now < lastMillis) {
+            now = lastMillis;
+        }
+        if (now == lastMillis) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0) {
+                now = ++lastMillis;
+            }
+        } else {
+            sequence = 0;
+        }
+        lastMillis = now;
+        return ((now - EPOCH_MILLIS) << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+    }
+}
@@ -0,0 +1,8 @@
+package com.sonng2k.cashcard;
+
+import java.util.List;
+
+// The answer to a multi-get: the requested cards that were found, in the order they were asked for, and the IDs
+// that weren't. Somebody else's cards count as missing.
+public record CashCardLookup(List<CashCard> cards, List<Long> missing) {
+}
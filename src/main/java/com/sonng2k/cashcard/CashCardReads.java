@@ -0,0 +1,70 @@
+package com.sonng2k.cashcard;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+// The CashCardRepository reads of the controller, with concurrent identical reads coalesced into one database
+// call (see SingleFlight). During a fan-out storm, when many requests ask for the same card or the same page at
+// the same moment, only one of them goes to the database.
+//
+// Every key contains the owner, and the shared call filters by that owner, so one owner can never receive
+// another owner's cards. Writes call forget(owner) once they are saved, so a read that starts after a write has
+// returned never joins a call that started before the write.
+//
+// Reported as the counter cashcard.reads (tags query=card|page, outcome=database|shared|timed-out); the shared
+// outcome is the number of database calls saved.
+@Component
+public class CashCardReads {
+
+    private record CardKey(String owner, Long id) {
+    }
+
+    private record PageKey(String owner, PageRequest pageRequest) {
+    }
+
+    private final CashCardRepository cashCardRepository;
+    private final SingleFlight<CardKey, Optional<CashCard>> cards;
+    private final SingleFlight<PageKey, List<CashCard>> pages;
+
+    public CashCardReads(CashCardRepository cashCardRepository, MeterRegistry meterRegistry,
+                         @Value("${cashcard.coalescing.card-timeout:PT1S}") Duration cardTimeout,
+                         @Value("${cashcard.coalescing.page-timeout:PT2S}") Duration pageTimeout) {
+        this.cashCardRepository = cashCardRepository;
+        this.cards = new SingleFlight<>(cardTimeout);
+        this.pages = new SingleFlight<>(pageTimeout);
+        register(meterRegistry, "card", cards);
+        register(meterRegistry, "page", pages);
+    }
+
+    public CashCard findByIdAndOwner(Long id, String owner) {
+        return cards.load(new CardKey(owner, id),
+                () -> Optional.ofNullable(cashCardRepository.findByIdAndOwner(id, owner))).orElse(null);
+    }
+
+    // Only the content is shared; PageRequest equality covers page number, size and sort.
+    public List<CashCard> findByOwner(String owner, PageRequest pageRequest) {
+        return pages.load(new PageKey(owner, pageRequest),
+                () -> cashCardRepository.findByOwner(owner, pageRequest).getContent());
+    }
+
+    public void forget(String owner) {
+        cards.forgetIf(key -> key.owner().equals(owner));
+        pages.forgetIf(key -> key.owner().equals(owner));
+    }
+
+    private static void register(MeterRegistry meterRegistry, String query, SingleFlight<?, ?> flight) {
+        FunctionCounter.builder("cashcard.reads", flight, f -> f.calls() - f.timedOut())
+                .tags("query", query, "outcome", "database").register(meterRegistry);
+        FunctionCounter.builder("cashcard.reads", flight, SingleFlight::shared)
+                .tags("query", query, "outcome", "shared").register(meterRegistry);
+        FunctionCounter.builder("cashcard.reads", flight, SingleFlight::timedOut)
+                .tags("query", query, "outcome", "timed-out").register(meterRegistry);
+    }
+}
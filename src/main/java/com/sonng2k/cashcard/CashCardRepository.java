@@ -5,10 +5,16 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
-public interface CashCardRepository extends CrudRepository<CashCard, Long>, PagingAndSortingRepository<CashCard, Long> {
+import java.util.Collection;
+import java.util.List;
+
+public interface CashCardRepository extends CrudRepository<CashCard, Long>, PagingAndSortingRepository<CashCard, Long>,
+        CashCardBalances {
     CashCard findByIdAndOwner(Long id, String owner);
 
     Page<CashCard> findByOwner(String owner, PageRequest amount);
 
     boolean existsByIdAndOwner(Long id, String owner);
+
+    List<CashCard> findAllByOwnerAndIdIn(String owner, Collection<Long> ids);
 }
@@ -0,0 +1,7 @@
+package com.sonng2k.cashcard;
+
+import java.math.BigDecimal;
+
+// One transfer of POST /cashcards/transfers: move amount from card `from` to card `to`, both of the caller.
+public record CashCardTransfer(Long from, Long to, BigDecimal amount) {
+}
@@ -0,0 +1,93 @@
+package com.sonng2k.cashcard;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+// Moves money between cards of one owner, many transfers at a time, all or nothing.
+//
+// All cards of a request are locked in ascending ID order and changed in one step through
+// CashCardRepository.updateBalances(); against the database that is one SELECT ... FOR UPDATE and one batched
+// UPDATE, however many transfers the request carries (see CashCardBalancesImpl). Two requests that touch the same
+// cards always lock them in the same order, so they can't deadlock; one simply waits for the other.
+// The transfers are checked in request order against the locked balances: a transfer may spend money that an
+// earlier transfer of the same request brought in, but no card may ever go below zero.
+//
+// Cards kept by CashCardWriteBehind are refused, because their current amount lives in memory, not in the row.
+@Component
+public class CashCardTransfers {
+
+    private final CashCardRepository cashCardRepository;
+    private final CashCardWriteBehind writeBehind;
+    private final CashCardReads cashCardReads;
+    private final int maxTransfers;
+
+    public CashCardTransfers(CashCardRepository cashCardRepository, CashCardWriteBehind writeBehind,
+                             CashCardReads cashCardReads,
+                             @Value("${cashcard.transfers.max-per-request:1000}") int maxTransfers) {
+        this.cashCardRepository = cashCardRepository;
+        this.writeBehind = writeBehind;
+        this.cashCardReads = cashCardReads;
+        this.maxTransfers = maxTransfers;
+    }
+
+    // Returns the cards involved with their new amounts, in ID order.
+    public List<CashCard> transfer(String owner, List<CashCardTransfer> transfers) {
+        SortedSet<Long> cardIds = validate(transfers);
+        if (cardIds.stream().anyMatch(writeBehind::manages)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Write-behind cards can't take part in transfers");
+        }
+        Map<Long, BigDecimal> balances = cashCardRepository.updateBalances(owner, cardIds,
+                locked -> apply(locked, transfers));
+        if (balances == null) {
+            // Somebody else's cards look exactly like cards that don't exist.
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown cash cards in transfers");
+        }
+        cashCardReads.forget(owner);
+        List<CashCard> cards = new ArrayList<>(balances.size());
+        balances.forEach((id, balance) -> cards.add(new CashCard(id, balance.doubleValue(), owner)));
+        return cards;
+    }
+
+    private static Map<Long, BigDecimal> apply(Map<Long, BigDecimal> balances, List<CashCardTransfer> transfers) {
+        for (int i = 0; i < transfers.size(); i++) {
+            CashCardTransfer transfer = transfers.get(i);
+            BigDecimal remaining = balances.get(transfer.from()).subtract(transfer.amount());
+            if (remaining.signum() < 0) {
+                throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                        "Transfer " + i + ": insufficient funds on cash card " + transfer.from());
+            }
+            balances.put(transfer.from(), remaining);
+            balances.merge(transfer.to(), transfer.amount(), BigDecimal::add);
+        }
+        return balances;
+    }
+
+    private SortedSet<Long> validate(List<CashCardTransfer> transfers) {
+        if (transfers == null || transfers.isEmpty() || transfers.size() > maxTransfers) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Between 1 and " + maxTransfers + " transfers per request");
+        }
+        SortedSet<Long> cardIds = new TreeSet<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            CashCardTransfer transfer = transfers.get(i);
+            if (transfer == null || transfer.from() == null || transfer.to() == null || transfer.amount() == null
+                    || transfer.from().equals(transfer.to())
+                    || transfer.amount().signum() <= 0 || transfer.amount().stripTrailingZeros().scale() > 2) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Transfer " + i + " is invalid: it needs "
+                        + "two different cards and a positive amount with at most two decimals");
+            }
+            cardIds.add(transfer.from());
+            cardIds.add(transfer.to());
+        }
+        return cardIds;
+    }
+}
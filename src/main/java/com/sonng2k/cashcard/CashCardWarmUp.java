@@ -0,0 +1,175 @@
+package com.sonng2k.cashcard;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.UserDetailsManager;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Warms up a freshly started node before it takes traffic (cashcard.warmup.enabled=true).
+//
+// A new JVM runs the request path in the interpreter until the JIT compiler has seen it often enough, and
+// Jackson, Spring Security, Spring Data and the connection pool all build their caches on first use, so the
+// first few thousand requests of every deploy are slow. This runner sends real requests through the whole
+// stack (HTTP, BCrypt password check, controller, JSON, JDBC) as a synthetic owner that exists only while it
+// runs: create, read, list, update and delete a card, and ask for a card that doesn't exist.
+//
+// Spring Boot only reports the readiness state ACCEPTING_TRAFFIC (/actuator/health/readiness) once all
+// ApplicationRunners have returned, so a load balancer that follows readiness won't send traffic before the
+// warm-up has finished. It stops after cashcard.warmup.iterations rounds or cashcard.warmup.max-duration,
+// whichever comes first. Most of the time goes into BCrypt, which is slow on purpose.
+@Component
+@ConditionalOnProperty(name = "cashcard.warmup.enabled", havingValue = "true")
+public class CashCardWarmUp implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(CashCardWarmUp.class);
+
+    private final UserDetailsService userDetailsService;
+    private final PasswordEncoder passwordEncoder;
+    private final ObjectMapper objectMapper;
+    private final Environment environment;
+    private final int iterations;
+    private final Duration maxDuration;
+    private final int concurrency;
+
+    private final AtomicInteger completedIterations = new AtomicInteger();
+
+    public CashCardWarmUp(UserDetailsService userDetailsService, PasswordEncoder passwordEncoder,
+                          ObjectMapper objectMapper, Environment environment,
+                          @Value("${cashcard.warmup.iterations:500}") int iterations,
+                          @Value("${cashcard.warmup.max-duration:PT30S}") Duration maxDuration,
+                          @Value("${cashcard.warmup.concurrency:4}") int concurrency) {
+        this.userDetailsService = userDetailsService;
+        this.passwordEncoder = passwordEncoder;
+        this.objectMapper = objectMapper;
+        this.environment = environment;
+        this.iterations = iterations;
+        this.maxDuration = maxDuration;
+        this.concurrency = concurrency;
+    }
+
+    public int completedIterations() {
+        return completedIterations.get();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!(userDetailsService instanceof UserDetailsManager users)) {
+            log.warn("Skipping the warm-up: {} can't create the synthetic owner", userDetailsService.getClass());
+            return;
+        }
+        Integer port = environment.getProperty("local.server.port", Integer.class);
+        if (port == null) {
+            log.warn("Skipping the warm-up: no web server is running");
+            return;
+        }
+
+        String owner = "warmup-" + UUID.randomUUID();
+        String password = UUID.randomUUID().toString();
+        users.createUser(User.withUsername(owner)
+                .password(passwordEncoder.encode(password))
+                .roles("CARD-OWNER")
+                .build());
+        Client client = new Client(URI.create("http://localhost:" + port), owner, password);
+        long startNanos = System.nanoTime();
+        long deadline = startNanos + maxDuration.toNanos();
+        AtomicInteger remaining = new AtomicInteger(iterations);
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                results.add(workers.submit(() -> {
+                    while (System.nanoTime() < deadline && remaining.getAndDecrement() > 0) {
+                        iteration(client);
+                        completedIterations.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (Exception e) {
+            // A failed warm-up must not keep the node from starting; it is merely slower for a while.
+            log.warn("Warm-up failed after {} iterations", completedIterations.get(), e);
+        } finally {
+            workers.shutdownNow();
+            try {
+                deleteRemainingCards(client);
+            } finally {
+                users.deleteUser(owner);
+            }
+        }
+        log.info("Warm-up finished {} iterations in {} ms", completedIterations.get(),
+                Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+    }
+
+    private void iteration(Client client) throws IOException, InterruptedException {
+        HttpResponse<String> created = client.send("POST", "/cashcards", "{\"amount\": 12.50}");
+        String location = created.headers().firstValue("Location").map(URI::create).map(URI::getPath)
+                .orElseThrow(() -> new IllegalStateException("POST /cashcards answered " + created.statusCode()));
+        client.send("GET", location, null);
+        client.send("GET", "/cashcards?page=0&size=20&sort=amount,asc", null);
+        client.send("PUT", location, "{\"amount\": 25.00}");
+        client.send("GET", "/cashcards/-1", null);
+        client.send("DELETE", location, null);
+    }
+
+    // Cards of iterations that failed halfway.
+    private void deleteRemainingCards(Client client) throws IOException, InterruptedException {
+        HttpResponse<String> page = client.send("GET", "/cashcards?page=0&size=1000", null);
+        if (page.statusCode() != 200) {
+            return;
+        }
+        for (JsonNode card : objectMapper.readTree(page.body())) {
+            client.send("DELETE", "/cashcards/" + card.get("id").asLong(), null);
+        }
+    }
+
+    private record Client(HttpClient http, URI baseUri, String authorization) {
+
+        Client(URI baseUri, String owner, String password) {
+            this(HttpClient.newHttpClient(), baseUri, "Basic " + Base64.getEncoder()
+                    .encodeToString((owner + ":" + password).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        HttpResponse<String> send(String method, String path, String json) throws IOException, InterruptedException {
+            HttpRequest.Builder request = HttpRequest.newBuilder(baseUri.resolve(path))
+                    .header("Authorization", authorization)
+                    .timeout(Duration.ofSeconds(10));
+            if (json != null) {
+                request.header("Content-Type", "application/json")
+                        .method(method, HttpRequest.BodyPublishers.ofString(json));
+            } else {
+                request.method(method, HttpRequest.BodyPublishers.noBody());
+            }
+            return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        }
+    }
+}
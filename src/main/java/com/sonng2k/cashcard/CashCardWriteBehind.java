@@ -0,0 +1,311 @@
+package com.sonng2k.cashcard;
+
+import jakarta.annotation.PreDestroy;
+import com.sonng2k.cashcard.sharding.ShardContext;
+import com.sonng2k.cashcard.sharding.ShardRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Write-behind for a few designated "hot" cards (cashcard.write-behind.card-ids), such as shared merchant float
+// cards that get hundreds of PUTs per second.
+
+// For those cards the controller doesn't save every PUT. It updates the card's state here, and a background
+// thread adds up what the PUTs changed and applies that change to the database once per flush interval, in one
+// transaction per owner. Ten PUTs to the same card between two flushes become one UPDATE. Reads of a designated
+// card come from here, so a client sees its own write right away.
+//
+// Guarantees:
+// - A PUT is in the database at most flush-interval later, unless the database is failing.
+// - When a flush fails, the changes stay pending and are retried on the next tick. If nothing could be flushed
+//   for max-unflushed, PUTs to designated cards are refused with 503 instead of piling up more unsaved state.
+// - On shutdown, pending changes are flushed before the DataSource closes. Changes that still can't be written
+//   are logged at ERROR with their amounts so they can be replayed.
+// - A process crash loses at most the changes of the last flush interval.
+// - With the sharding profile, each owner's cards are flushed holding the owner's lock (ShardRouter.callAs()), so
+//   a flush never runs while ShardRebalancer moves that owner.
+// - Within this application, this class is the single writer of a designated card: a PUT goes through update(),
+//   and CashCardTransfers refuses designated cards with 409. Writers outside it (CardTransactionBatchListener's
+//   AMOUNT = AMOUNT + ?, another instance, a manual fix) are not overwritten, because a flush never writes an
+//   absolute amount: it adds the pending change to whatever the row holds (CashCardBalances.updateBalances()).
+//   Their changes show up here within a flush interval, since cards without pending changes are reloaded after
+//   every flush. A PUT based on an amount that was already stale is applied as the change it made to that amount.
+// Pages from GET /cashcards show the in-memory amounts, but are sorted by the amounts in the database.
+@Component
+public class CashCardWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(CashCardWriteBehind.class);
+
+    private static final Duration MAX_FLUSH_INTERVAL = Duration.ofSeconds(10);
+
+    private final CashCardRepository cashCardRepository;
+    // Only there with the sharding profile.
+    private final ShardRouter shardRouter;
+    private final Set<Long> cardIds;
+    private final Duration maxUnflushed;
+    private final ScheduledExecutorService flusher;
+
+    // The current state of every designated card that was read or written, and how much its amount changed since
+    // it was last read from or written to the database. A card and its change are only updated together, inside
+    // cards.compute(). A change that nets to zero stays until a flush drops it holding flushLock: a flush that is
+    // writing the card meanwhile subtracts what it wrote from it, and what is left still has to be written.
+    private final Map<Long, CashCard> cards = new ConcurrentHashMap<>();
+    private final Map<Long, PendingChange> pending = new ConcurrentHashMap<>();
+
+    // Held while flushing an owner's cards, so evict() can wait for a flush that might still write the card it
+    // removes. Always taken after the owner's shard lock, as a request calling evict() does.
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private volatile long lastCleanFlushNanos = System.nanoTime();
+
+    private record PendingChange(String owner, BigDecimal amount) {
+    }
+
+    public CashCardWriteBehind(CashCardRepository cashCardRepository, ObjectProvider<ShardRouter> shardRouter,
+                               @Value("${cashcard.write-behind.card-ids:}") Set<Long> cardIds,
+                               @Value("${cashcard.write-behind.flush-interval:PT0.1S}") Duration flushInterval,
+                               @Value("${cashcard.write-behind.max-unflushed:PT5S}") Duration maxUnflushed) {
+        if (flushInterval.isNegative() || flushInterval.isZero() || flushInterval.compareTo(MAX_FLUSH_INTERVAL) > 0) {
+            throw new IllegalArgumentException("cashcard.write-behind.flush-interval must be between 0 and "
+                    + MAX_FLUSH_INTERVAL + " but was " + flushInterval);
+        }
+        this.cashCardRepository = cashCardRepository;
+        this.shardRouter = shardRouter.getIfAvailable();
+        this.cardIds = Set.copyOf(cardIds);
+        this.maxUnflushed = maxUnflushed;
+        if (this.cardIds.isEmpty()) {
+            this.flusher = null;
+        } else {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cashcard-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = flushInterval.toMillis();
+            flusher.scheduleWithFixedDelay(this::flushQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+            log.info("Write-behind enabled for cash cards {}, flushing every {}", this.cardIds, flushInterval);
+        }
+    }
+
+    public boolean manages(Long id) {
+        return id != null && cardIds.contains(id);
+    }
+
+    public CashCard find(Long id, String owner) {
+        CashCard card = cards.computeIfAbsent(id, key -> cashCardRepository.findById(key).orElse(null));
+        return card != null && card.owner().equals(owner) ? card : null;
+    }
+
+    // Records the difference between card's amount and the in-memory one as a pending change.
+    public void update(CashCard card) {
+        if (!pending.isEmpty() && System.nanoTime() - lastCleanFlushNanos > maxUnflushed.toNanos()) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Cash card updates are not reaching the database");
+        }
+        cards.compute(card.id(), (id, current) -> {
+            if (current == null) {
+                // Reloaded after a flush since the controller read it.
+                current = cashCardRepository.findById(id).orElse(null);
+                if (current == null) {
+                    return null;
+                }
+            }
+            BigDecimal change = BigDecimal.valueOf(card.amount()).subtract(BigDecimal.valueOf(current.amount()));
+            if (change.signum() != 0) {
+                pending.merge(id, new PendingChange(card.owner(), change), CashCardWriteBehind::combine);
+            }
+            return card;
+        });
+    }
+
+    // Forgets a card that is about to be deleted, after any flush that could still write it has finished.
+    public void evict(Long id) {
+        flushLock.lock();
+        try {
+            pending.remove(id);
+            cards.remove(id);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Replaces cards in a page read from the database with their in-memory state.
+    public List<CashCard> overlay(List<CashCard> page) {
+        if (cards.isEmpty()) {
+            return page;
+        }
+        List<CashCard> overlaid = new ArrayList<>(page.size());
+        for (CashCard card : page) {
+            overlaid.add(cards.getOrDefault(card.id(), card));
+        }
+        return overlaid;
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    // Applies the pending change of every card, in one transaction per owner, and reloads cards without pending
+    // changes on their next read. Returns false if some change could not be written.
+    public boolean flush() {
+        Set<String> owners = new HashSet<>();
+        pending.values().forEach(change -> owners.add(change.owner()));
+        // One transaction per owner: with the sharding profile, different owners may live in different databases.
+        boolean flushed = true;
+        for (String owner : owners) {
+            flushed &= callAs(owner, () -> flushOwner(owner));
+        }
+        for (Long id : cards.keySet()) {
+            cards.computeIfPresent(id, (key, card) -> pending.containsKey(key) ? card : null);
+        }
+        if (flushed) {
+            lastCleanFlushNanos = System.nanoTime();
+        }
+        return flushed;
+    }
+
+    private <T> T callAs(String owner, Supplier<T> work) {
+        return shardRouter == null ? ShardContext.callAs(owner, work) : shardRouter.callAs(owner, work);
+    }
+
+    // The changes are read holding flushLock, so no other flush is writing them, and cards evicted since flush()
+    // started are left out.
+    private boolean flushOwner(String owner) {
+        flushLock.lock();
+        try {
+            Map<Long, BigDecimal> changes = new TreeMap<>();
+            pending.forEach((id, change) -> {
+                if (!change.owner().equals(owner)) {
+                    return;
+                }
+                if (change.amount().signum() != 0) {
+                    changes.put(id, change.amount());
+                } else {
+                    // Unless update() changed it again in the meantime.
+                    pending.remove(id, change);
+                }
+            });
+            if (changes.isEmpty()) {
+                return true;
+            }
+            Map<Long, BigDecimal> stored = null;
+            try {
+                stored = cashCardRepository.updateBalances(owner, new TreeSet<>(changes.keySet()),
+                        balances -> applied(balances, changes));
+            } catch (RuntimeException e) {
+                log.warn("Flushing {} cash cards of {} failed, retrying them one by one", changes.size(), owner, e);
+            }
+            if (stored != null) {
+                stored.forEach((id, amount) -> flushed(id, amount, changes.get(id)));
+                return true;
+            }
+            // Some card is gone, or the database failed.
+            boolean flushed = true;
+            for (Map.Entry<Long, BigDecimal> change : changes.entrySet()) {
+                flushed &= flushOne(owner, change.getKey(), change.getValue());
+            }
+            return flushed;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Called holding the owner's lock, so a card that isn't there was deleted, rather than being on its way to
+    // another shard.
+    private boolean flushOne(String owner, Long id, BigDecimal change) {
+        SortedSet<Long> ids = new TreeSet<>(Set.of(id));
+        try {
+            Map<Long, BigDecimal> stored = cashCardRepository.updateBalances(owner, ids,
+                    balances -> applied(balances, Map.of(id, change)));
+            if (stored != null) {
+                flushed(id, stored.get(id), change);
+            } else {
+                // Deleted while it had pending changes; there is nothing left to write them to.
+                log.error("Lost write-behind update: cash card {} of {} should have changed by {}, but it was deleted",
+                        id, owner, change);
+                pending.remove(id);
+                cards.remove(id);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Flushing cash card {} failed, keeping it pending", id, e);
+            return false;
+        }
+    }
+
+    // The database now holds stored, which includes change. Whatever changed in memory since the flush started
+    // stays pending, on top of stored.
+    private void flushed(Long id, BigDecimal stored, BigDecimal change) {
+        cards.computeIfPresent(id, (key, card) -> {
+            PendingChange rest = pending.computeIfPresent(key, (k, pendingChange) -> {
+                BigDecimal remaining = pendingChange.amount().subtract(change);
+                return remaining.signum() == 0 ? null : new PendingChange(pendingChange.owner(), remaining);
+            });
+            BigDecimal amount = rest == null ? stored : stored.add(rest.amount());
+            return new CashCard(key, amount.doubleValue(), card.owner());
+        });
+    }
+
+    private static Map<Long, BigDecimal> applied(Map<Long, BigDecimal> balances, Map<Long, BigDecimal> changes) {
+        Map<Long, BigDecimal> changed = new TreeMap<>(balances);
+        changes.forEach((id, change) -> changed.merge(id, change, BigDecimal::add));
+        return changed;
+    }
+
+    private static PendingChange combine(PendingChange left, PendingChange right) {
+        return new PendingChange(left.owner(), left.amount().add(right.amount()));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Write-behind flush failed", e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(MAX_FLUSH_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        for (int attempt = 1; attempt <= 3; attempt++) {
+            try {
+                if (flush()) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                log.warn("Final write-behind flush attempt {} failed", attempt, e);
+            }
+            Thread.sleep(100L * attempt);
+        }
+        pending.forEach((id, change) -> {
+            if (change.amount().signum() != 0) {
+                log.error("Lost write-behind update: cash card {} of {} should have changed by {}",
+                        id, change.owner(), change.amount());
+            }
+        });
+    }
+}
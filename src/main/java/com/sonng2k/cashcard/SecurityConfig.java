@@ -1,5 +1,7 @@
 package com.sonng2k.cashcard;
 
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -22,9 +24,13 @@ public class SecurityConfig {
         @Bean
         public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
 
+                // Actuator endpoints other than health (profiling, shards) can slow the node down or move data,
+                // so they are for operators only.
                 http.csrf(AbstractHttpConfigurer::disable)
-                                .authorizeHttpRequests(auth -> auth.requestMatchers("/cashcards/**")
-                                                .hasRole("CARD-OWNER"))
+                                .authorizeHttpRequests(auth -> auth
+                                                .requestMatchers(EndpointRequest.to(HealthEndpoint.class)).permitAll()
+                                                .requestMatchers(EndpointRequest.toAnyEndpoint()).hasRole("OPS")
+                                                .requestMatchers("/cashcards/**").hasRole("CARD-OWNER"))
                                 .httpBasic(withDefaults());
                 return http.build();
         }
@@ -54,6 +60,11 @@ public class SecurityConfig {
                                 .password(passwordEncoder.encode("xyz789"))
                                 .roles("CARD-OWNER")
                                 .build();
-                return new InMemoryUserDetailsManager(sarah, hankOwnsNoCards, kumar);
+                UserDetails ops = users
+                                .username("ops1")
+                                .password(passwordEncoder.encode("def456"))
+                                .roles("OPS")
+                                .build();
+                return new InMemoryUserDetailsManager(sarah, hankOwnsNoCards, kumar, ops);
         }
 }
@@ -0,0 +1,119 @@
+package com.sonng2k.cashcard;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Coalesces concurrent identical calls: the first caller for a key (the leader) runs the call, and everyone who
+// asks for the same key while it is running waits for, and shares, the leader's result or exception. Nothing is
+// cached: once the call has finished, the next caller starts a new one.
+//
+// Followers wait at most the timeout. After that they run the call themselves (and later callers no longer join
+// the slow call), so one stuck call can't hold every request for the key hostage.
+//
+// Results are handed to several callers at once, so they must be immutable.
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final long timeoutNanos;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public SingleFlight(Duration timeout) {
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    public V load(K key, Supplier<V> call) {
+        long now = System.nanoTime();
+        Flight<V> mine = new Flight<>(now);
+        Flight<V> flight = flights.compute(key,
+                (k, running) -> running == null || now - running.startNanos > timeoutNanos ? mine : running);
+        if (flight == mine) {
+            return lead(key, mine, call);
+        }
+        waiting.incrementAndGet();
+        try {
+            V result = flight.result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            shared.increment();
+            return result;
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            calls.increment();
+            return call.get();
+        } catch (ExecutionException e) {
+            shared.increment();
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + key, e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    // Makes callers that arrive from now on start a new call instead of joining a running one, for when the data
+    // the running call reads has just been changed.
+    public void forget(K key) {
+        flights.remove(key);
+    }
+
+    public void forgetIf(Predicate<? super K> keys) {
+        flights.keySet().removeIf(keys);
+    }
+
+    // Calls that actually ran, including those of followers that timed out.
+    public long calls() {
+        return calls.sum();
+    }
+
+    // Calls saved by sharing a leader's result.
+    public long shared() {
+        return shared.sum();
+    }
+
+    public long timedOut() {
+        return timedOut.sum();
+    }
+
+    // Followers currently waiting for a leader.
+    public int waiting() {
+        return waiting.get();
+    }
+
+    private V lead(K key, Flight<V> flight, Supplier<V> call) {
+        calls.increment();
+        try {
+            V result = call.get();
+            flight.result.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private record Flight<V>(long startNanos, CompletableFuture<V> result) {
+
+        Flight(long startNanos) {
+            this(startNanos, new CompletableFuture<>());
+        }
+    }
+}
@@ -0,0 +1,608 @@
+package com.sonng2k.cashcard.journal;
+
+import com.sonng2k.cashcard.CashCard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// An embedded, append-only store of cash cards: every change is appended to a memory-mapped log file, and the
+// current state lives in in-memory indexes that point into those files. Used by JournalCashCardRepository.
+
+// On disk, a directory of log files:
+//   segment-<n>.log    the log, in order of n. Only the last one is appended to; when it is full, a new one starts.
+//   compacted-<n>.log  the live cards of every file up to and including segment-<n>, written by compaction.
+// A file is a sequence of records, followed by zeros:
+//   int length, int CRC-32 of the payload, payload = int count + count entries
+//   entry = byte PUT, long id, double amount, short owner length, owner (UTF-8)
+//         | byte DELETE, long id
+// A record is applied as a whole or not at all, so several cards can change atomically (see locked()).
+//
+// In memory:
+// - an ID index (LongLongHashMap) from card ID to the position of its latest PUT entry: file number << 32 | offset
+// - per owner, the owner's cards sorted by ID and by (amount, ID), for the pages of findByOwner()
+// A read looks up the position and decodes the card straight from the mapped file.
+//
+// Durability: appends are visible to the OS as soon as they are copied into the mapping, so they survive a crash
+// of the process. With force, every append is also flushed to the disk before it returns, so they survive a
+// crash of the machine too, at the cost of one disk flush per write.
+//
+// Recovery: on open, the newest compacted file and every later segment are replayed in order. A torn record at
+// the end of the last segment (the process died in the middle of an append) is dropped; a broken record anywhere
+// else means the files are damaged, and open fails.
+//
+// Compaction: every compaction interval, once at least half of the bytes of the finished files belong to cards
+// that were changed or deleted since, the live cards of the finished files are copied into a new
+// compacted-<n>.log. Reads are only blocked by the final swap of positions, which takes the write lock. Writes
+// also wait while the live entries are looked up in the ID index (under the read lock), but not during the
+// copy. The new file is flushed and renamed into place before the old ones are deleted, so a crash at any point
+// leaves either the old files or the new one for recovery.
+public class CashCardJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(CashCardJournal.class);
+
+    private static final Pattern FILE_NAME = Pattern.compile("(segment|compacted)-(\\d+)\\.log");
+    private static final int HEADER_BYTES = 8;
+    private static final int COUNT_BYTES = 4;
+    private static final int PUT_BYTES = 1 + 8 + 8 + 2;
+    private static final int DELETE_BYTES = 1 + 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int MIN_SEGMENT_SIZE = 4 * 1024;
+    private static final int MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean force;
+    private final boolean deleteOnClose;
+    private final ScheduledExecutorService compactor;
+
+    // Reads take the read lock, changes the write lock. Compaction is serialized by its own lock.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    private final NavigableMap<Integer, JournalFile> files = new TreeMap<>();
+    private final LongLongHashMap index = new LongLongHashMap();
+    private final Map<String, OwnerIndex> owners = new HashMap<>();
+    private JournalFile active;
+    private boolean closed;
+
+    // A compactionInterval of zero disables background compaction; compact() can still be called.
+    public CashCardJournal(Path directory, int segmentSize, boolean force, Duration compactionInterval,
+                           boolean deleteOnClose) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Journal segment size must be between " + MIN_SEGMENT_SIZE + " and "
+                    + MAX_SEGMENT_SIZE + " bytes but was " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.force = force;
+        this.deleteOnClose = deleteOnClose;
+        recover();
+        if (compactionInterval.isZero() || compactionInterval.isNegative()) {
+            this.compactor = null;
+        } else {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cashcard-journal-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = compactionInterval.toMillis();
+            compactor.scheduleWithFixedDelay(this::compactQuietly, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public CashCard find(long id) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            long position = index.get(id);
+            return position == LongLongHashMap.MISSING ? null : read(position);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long count() {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int countByOwner(String owner) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            OwnerIndex cards = owners.get(owner);
+            return cards == null ? 0 : cards.byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The owner's cards sorted by amount (ties by ID) or by ID, skipping offset of them.
+    public List<CashCard> findByOwner(String owner, boolean byAmount, boolean descending, long offset, int limit) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            OwnerIndex cards = owners.get(owner);
+            if (cards == null || offset >= cards.byId.size()) {
+                return List.of();
+            }
+            NavigableSet<Card> sorted = byAmount ? cards.byAmount : cards.byId;
+            Iterator<Card> iterator = descending ? sorted.descendingIterator() : sorted.iterator();
+            for (long skipped = 0; skipped < offset; skipped++) {
+                iterator.next();
+            }
+            List<CashCard> page = new ArrayList<>(Math.min(limit, cards.byId.size()));
+            while (page.size() < limit && iterator.hasNext()) {
+                page.add(read(index.get(iterator.next().id())));
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<CashCard> findAll() {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            List<CashCard> cards = new ArrayList<>(index.size());
+            index.forEach((id, position) -> cards.add(read(position)));
+            return cards;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Appends the puts and deletes as one record. Cards must have an ID, an amount and an owner.
+    public void write(Collection<CashCard> puts, Collection<Long> deletes) {
+        locked(() -> {
+            append(puts, deletes);
+            return null;
+        });
+    }
+
+    // Runs action while holding the write lock, so that what it reads stays true for what it writes: nobody else
+    // reads or changes the journal in between. Reentrant.
+    public <T> T locked(Supplier<T> action) {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            return action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns false if there was nothing worth compacting.
+    public boolean compact() throws IOException {
+        compactionLock.lock();
+        try {
+            return compactFinishedFiles();
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!force) {
+                active.buffer.force();
+            }
+            if (deleteOnClose) {
+                for (JournalFile file : files.values()) {
+                    Files.deleteIfExists(file.path);
+                }
+                Files.deleteIfExists(directory);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void append(Collection<CashCard> puts, Collection<Long> deletes) {
+        List<byte[]> ownerBytes = new ArrayList<>(puts.size());
+        int payloadBytes = COUNT_BYTES + deletes.size() * DELETE_BYTES;
+        for (CashCard card : puts) {
+            if (card.id() == null || card.amount() == null || card.owner() == null) {
+                throw new IllegalArgumentException("A journaled cash card needs an ID, amount and owner: " + card);
+            }
+            byte[] owner = card.owner().getBytes(StandardCharsets.UTF_8);
+            if (owner.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Owner name too long: " + card.owner());
+            }
+            ownerBytes.add(owner);
+            payloadBytes += PUT_BYTES + owner.length;
+        }
+        int recordBytes = HEADER_BYTES + payloadBytes;
+        if (recordBytes > segmentSize) {
+            throw new IllegalArgumentException("A record of " + recordBytes + " bytes doesn't fit into a journal "
+                    + "segment of " + segmentSize + " bytes");
+        }
+        if (active.end + recordBytes > active.buffer.capacity()) {
+            roll();
+        }
+
+        MappedByteBuffer buffer = active.buffer;
+        int start = active.end;
+        int offset = start + HEADER_BYTES;
+        buffer.putInt(offset, puts.size() + deletes.size());
+        offset += COUNT_BYTES;
+        List<Long> positions = new ArrayList<>(puts.size());
+        Iterator<byte[]> owners = ownerBytes.iterator();
+        for (CashCard card : puts) {
+            byte[] owner = owners.next();
+            positions.add(position(active.number, offset));
+            buffer.put(offset, PUT);
+            buffer.putLong(offset + 1, card.id());
+            buffer.putDouble(offset + 9, card.amount());
+            buffer.putShort(offset + 17, (short) owner.length);
+            buffer.put(offset + PUT_BYTES, owner);
+            offset += PUT_BYTES + owner.length;
+        }
+        for (Long id : deletes) {
+            buffer.put(offset, DELETE);
+            buffer.putLong(offset + 1, id);
+            offset += DELETE_BYTES;
+        }
+        buffer.putInt(start + 4, crc(buffer, start + HEADER_BYTES, payloadBytes));
+        // The length goes in last: until it is there, recovery sees the end of the log at start.
+        buffer.putInt(start, payloadBytes);
+        if (force) {
+            buffer.force(start, recordBytes);
+        }
+        active.end = start + recordBytes;
+
+        Iterator<Long> position = positions.iterator();
+        for (CashCard card : puts) {
+            applyPut(card.id(), card.amount(), card.owner(), position.next());
+        }
+        for (Long id : deletes) {
+            applyDelete(id);
+            active.garbageBytes += DELETE_BYTES;
+        }
+    }
+
+    private void applyPut(long id, double amount, String owner, long position) {
+        long previous = index.put(id, position);
+        if (previous != LongLongHashMap.MISSING) {
+            forget(read(previous), previous);
+        }
+        owners.computeIfAbsent(owner, key -> new OwnerIndex()).add(new Card(id, amount));
+    }
+
+    private void applyDelete(long id) {
+        long previous = index.remove(id);
+        if (previous != LongLongHashMap.MISSING) {
+            forget(read(previous), previous);
+        }
+    }
+
+    // Takes a superseded card out of its owner's index and counts its entry as garbage of the file it is in.
+    private void forget(CashCard card, long position) {
+        OwnerIndex cards = owners.get(card.owner());
+        cards.remove(new Card(card.id(), card.amount()));
+        if (cards.byId.isEmpty()) {
+            owners.remove(card.owner());
+        }
+        files.get(fileNumber(position)).garbageBytes += entryBytes(position);
+    }
+
+    private CashCard read(long position) {
+        MappedByteBuffer buffer = files.get(fileNumber(position)).buffer;
+        int offset = offset(position);
+        byte[] owner = new byte[buffer.getShort(offset + 17)];
+        buffer.get(offset + PUT_BYTES, owner);
+        return new CashCard(buffer.getLong(offset + 1), buffer.getDouble(offset + 9),
+                new String(owner, StandardCharsets.UTF_8));
+    }
+
+    private int entryBytes(long position) {
+        return PUT_BYTES + files.get(fileNumber(position)).buffer.getShort(offset(position) + 17);
+    }
+
+    private void roll() {
+        int number = active.number + 1;
+        try {
+            active = new JournalFile(number, directory.resolve("segment-" + number + ".log"), segmentSize, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start journal segment " + number, e);
+        }
+        files.put(number, active);
+    }
+
+    private void recover() throws IOException {
+        NavigableMap<Integer, Path> segments = new TreeMap<>();
+        NavigableMap<Integer, Path> compacted = new TreeMap<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    (matcher.group(1).equals("segment") ? segments : compacted)
+                            .put(Integer.parseInt(matcher.group(2)), path);
+                } else if (path.getFileName().toString().endsWith(".tmp")) {
+                    // An unfinished compaction; the files it was going to replace are all still there.
+                    Files.delete(path);
+                }
+            }
+        }
+        // A crash between renaming a compacted file into place and deleting what it replaced leaves both.
+        int base = compacted.isEmpty() ? 0 : compacted.lastKey();
+        for (Path superseded : compacted.headMap(base).values()) {
+            Files.delete(superseded);
+        }
+        for (Path superseded : segments.headMap(base, true).values()) {
+            Files.delete(superseded);
+        }
+        if (!compacted.isEmpty()) {
+            replay(new JournalFile(base, compacted.get(base), -1, true), false);
+        }
+        for (Map.Entry<Integer, Path> segment : segments.tailMap(base, false).entrySet()) {
+            replay(new JournalFile(segment.getKey(), segment.getValue(), -1, false),
+                    segment.getKey().equals(segments.lastKey()));
+        }
+        if (active == null || active.compacted) {
+            int number = base + 1;
+            active = new JournalFile(number, directory.resolve("segment-" + number + ".log"), segmentSize, false);
+            files.put(number, active);
+        }
+        log.info("Journal {} holds {} cash cards in {} files", directory, index.size(), files.size());
+    }
+
+    private void replay(JournalFile file, boolean last) {
+        files.put(file.number, file);
+        active = file;
+        MappedByteBuffer buffer = file.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < COUNT_BYTES || offset + HEADER_BYTES + length > buffer.capacity()
+                    || buffer.getInt(offset + 4) != crc(buffer, offset + HEADER_BYTES, length)) {
+                if (!last) {
+                    throw new IllegalStateException("Journal file " + file.path + " is damaged at offset " + offset);
+                }
+                log.warn("Dropping a torn record at offset {} of {}", offset, file.path);
+                // Zero the rest, so that what is appended next can't run into leftovers of the torn record.
+                for (int zero = offset; zero < buffer.capacity(); zero++) {
+                    buffer.put(zero, (byte) 0);
+                }
+                buffer.force();
+                break;
+            }
+            int entry = offset + HEADER_BYTES + COUNT_BYTES;
+            for (int count = buffer.getInt(offset + HEADER_BYTES); count > 0; count--) {
+                long id = buffer.getLong(entry + 1);
+                if (buffer.get(entry) == PUT) {
+                    byte[] owner = new byte[buffer.getShort(entry + 17)];
+                    buffer.get(entry + PUT_BYTES, owner);
+                    applyPut(id, buffer.getDouble(entry + 9), new String(owner, StandardCharsets.UTF_8),
+                            position(file.number, entry));
+                    entry += PUT_BYTES + owner.length;
+                } else {
+                    applyDelete(id);
+                    file.garbageBytes += DELETE_BYTES;
+                    entry += DELETE_BYTES;
+                }
+            }
+            offset += HEADER_BYTES + length;
+        }
+        file.end = offset;
+    }
+
+    private boolean compactFinishedFiles() throws IOException {
+        // 1. Under the read lock: note where the live cards of the finished files (all but the active segment) are.
+        // Reads go on meanwhile. A card written after this is caught by the position check of step 3.
+        Map<Integer, JournalFile> finished;
+        long[] ids;
+        long[] positions;
+        int target;
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            finished = new HashMap<>(files.headMap(active.number));
+            long usedBytes = finished.values().stream().mapToLong(file -> file.end).sum();
+            long garbageBytes = finished.values().stream().mapToLong(file -> file.garbageBytes).sum();
+            if (garbageBytes == 0 || garbageBytes * 2 < usedBytes) {
+                return false;
+            }
+            target = files.headMap(active.number).lastKey();
+            List<long[]> live = new ArrayList<>();
+            index.forEach((id, position) -> {
+                if (fileNumber(position) <= target) {
+                    live.add(new long[]{id, position});
+                }
+            });
+            ids = live.stream().mapToLong(entry -> entry[0]).toArray();
+            positions = live.stream().mapToLong(entry -> entry[1]).toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // 2. Without a lock: copy those entries into the new file. Finished files don't change any more, and only
+        // compaction removes them.
+        int[] sizes = new int[ids.length];
+        long totalBytes = 0;
+        for (int i = 0; i < ids.length; i++) {
+            JournalFile source = finished.get(fileNumber(positions[i]));
+            sizes[i] = HEADER_BYTES + COUNT_BYTES + PUT_BYTES + source.buffer.getShort(offset(positions[i]) + 17);
+            totalBytes += sizes[i];
+        }
+        if (totalBytes > MAX_SEGMENT_SIZE) {
+            throw new IllegalStateException("Cannot compact " + totalBytes + " bytes of live cash cards into one file");
+        }
+        Path path = directory.resolve("compacted-" + target + ".log");
+        Path temporary = directory.resolve("compacted-" + target + ".log.tmp");
+        Files.deleteIfExists(temporary);
+        JournalFile compacted = new JournalFile(target, temporary, Math.max(1, (int) totalBytes), true);
+        long[] compactedPositions = new long[ids.length];
+        int offset = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int payloadBytes = sizes[i] - HEADER_BYTES;
+            byte[] entry = new byte[payloadBytes - COUNT_BYTES];
+            finished.get(fileNumber(positions[i])).buffer.get(offset(positions[i]), entry);
+            compacted.buffer.putInt(offset + HEADER_BYTES, 1);
+            compacted.buffer.put(offset + HEADER_BYTES + COUNT_BYTES, entry);
+            compacted.buffer.putInt(offset + 4, crc(compacted.buffer, offset + HEADER_BYTES, payloadBytes));
+            compacted.buffer.putInt(offset, payloadBytes);
+            compactedPositions[i] = position(target, offset + HEADER_BYTES + COUNT_BYTES);
+            offset += sizes[i];
+        }
+        compacted.end = offset;
+        compacted.buffer.force();
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+
+        // 3. Under the write lock: point every card that didn't change in the meantime to its copy, and drop the
+        // finished files.
+        lock.writeLock().lock();
+        try {
+            compacted.path = path;
+            finished.keySet().forEach(files::remove);
+            files.put(target, compacted);
+            for (int i = 0; i < ids.length; i++) {
+                if (index.get(ids[i]) == positions[i]) {
+                    index.put(ids[i], compactedPositions[i]);
+                } else {
+                    compacted.garbageBytes += sizes[i];
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (JournalFile file : finished.values()) {
+            if (!file.path.equals(path)) {
+                Files.deleteIfExists(file.path);
+            }
+        }
+        log.info("Compacted {} journal files into {} ({} cash cards, {} bytes)", finished.size(), path.getFileName(),
+                ids.length, offset);
+        return true;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            log.error("Journal compaction failed", e);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The cash card journal is closed");
+        }
+    }
+
+    private static int crc(MappedByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private static long position(int fileNumber, int offset) {
+        return (long) fileNumber << 32 | offset;
+    }
+
+    private static int fileNumber(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    private static final class JournalFile {
+
+        final int number;
+        final boolean compacted;
+        final MappedByteBuffer buffer;
+        Path path;
+        int end;
+        long garbageBytes;
+
+        // A size of -1 maps an existing file as it is.
+        JournalFile(int number, Path path, int size, boolean compacted) throws IOException {
+            this.number = number;
+            this.path = path;
+            this.compacted = compacted;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size < 0 ? channel.size() : size);
+            }
+        }
+    }
+
+    private record Card(long id, double amount) {
+    }
+
+    private static final class OwnerIndex {
+
+        final NavigableSet<Card> byId = new TreeSet<>(Comparator.comparingLong(Card::id));
+        final NavigableSet<Card> byAmount = new TreeSet<>(Comparator.comparingDouble(Card::amount)
+                .thenComparingLong(Card::id));
+
+        void add(Card card) {
+            byId.add(card);
+            byAmount.add(card);
+        }
+
+        void remove(Card card) {
+            byId.remove(card);
+            byAmount.remove(card);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.sonng2k.cashcard.journal;
+
+import com.sonng2k.cashcard.CashCard;
+import com.sonng2k.cashcard.CashCardIdGenerator;
+import com.sonng2k.cashcard.CashCardRepository;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.IncorrectUpdateSemanticsDataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.StreamSupport;
+
+// CashCardRepository on top of CashCardJournal instead of the database; see JournalConfig.
+//
+// It behaves like the Spring Data JDBC repository it replaces, down to the corner cases the rest of the API
+// relies on: a new card gets its ID from CashCardIdGenerator, saving a card with an ID that doesn't exist fails
+// instead of creating it, and deleting a card that doesn't exist does nothing. Pages can be sorted by amount or
+// id (the SORTABLE_PROPERTIES of CashCardController), ties in amount by ID.
+class JournalCashCardRepository implements CashCardRepository {
+
+    private final CashCardJournal journal;
+    private final CashCardIdGenerator idGenerator;
+
+    JournalCashCardRepository(CashCardJournal journal, CashCardIdGenerator idGenerator) {
+        this.journal = journal;
+        this.idGenerator = idGenerator;
+    }
+
+    @Override
+    public CashCard findByIdAndOwner(Long id, String owner) {
+        CashCard card = id == null ? null : journal.find(id);
+        return card != null && card.owner().equals(owner) ? card : null;
+    }
+
+    @Override
+    public Page<CashCard> findByOwner(String owner, PageRequest pageRequest) {
+        Sort.Order order = pageRequest.getSort().stream()
+                // Within one owner's cards, sorting by owner changes nothing.
+                .filter(candidate -> !candidate.getProperty().equals("owner"))
+                .findFirst()
+                .orElse(Sort.Order.asc("id"));
+        if (!order.getProperty().equals("amount") && !order.getProperty().equals("id")) {
+            throw new IllegalArgumentException("Journaled cash cards can't be sorted by " + order.getProperty());
+        }
+        List<CashCard> content = journal.findByOwner(owner, order.getProperty().equals("amount"),
+                order.isDescending(), pageRequest.getOffset(), pageRequest.getPageSize());
+        return new PageImpl<>(content, pageRequest, journal.countByOwner(owner));
+    }
+
+    @Override
+    public boolean existsByIdAndOwner(Long id, String owner) {
+        return findByIdAndOwner(id, owner) != null;
+    }
+
+    @Override
+    public List<CashCard> findAllByOwnerAndIdIn(String owner, Collection<Long> ids) {
+        List<CashCard> cards = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            CashCard card = findByIdAndOwner(id, owner);
+            if (card != null) {
+                cards.add(card);
+            }
+        }
+        return cards;
+    }
+
+    @Override
+    public Map<Long, BigDecimal> updateBalances(String owner, SortedSet<Long> ids,
+                                                UnaryOperator<Map<Long, BigDecimal>> change) {
+        // One lock for the whole journal is trivially taken in ID order, and a write is only a memory copy.
+        return journal.locked(() -> {
+            Map<Long, BigDecimal> balances = new TreeMap<>();
+            for (Long id : ids) {
+                CashCard card = findByIdAndOwner(id, owner);
+                if (card == null) {
+                    return null;
+                }
+                balances.put(id, BigDecimal.valueOf(card.amount()));
+            }
+            Map<Long, BigDecimal> changed = new TreeMap<>(change.apply(new TreeMap<>(balances)));
+            List<CashCard> cards = new ArrayList<>(changed.size());
+            changed.forEach((id, balance) -> {
+                if (balance.compareTo(balances.get(id)) != 0) {
+                    cards.add(new CashCard(id, balance.doubleValue(), owner));
+                }
+            });
+            if (!cards.isEmpty()) {
+                journal.write(cards, List.of());
+            }
+            return changed;
+        });
+    }
+
+    @Override
+    public <S extends CashCard> S save(S entity) {
+        return saveAll(List.of(entity)).iterator().next();
+    }
+
+    // All of them in one journal record, so either all or none are saved.
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S extends CashCard> Iterable<S> saveAll(Iterable<S> entities) {
+        return journal.locked(() -> {
+            List<CashCard> cards = new ArrayList<>();
+            for (CashCard card : entities) {
+                if (card.amount() == null || card.owner() == null) {
+                    throw new DataIntegrityViolationException("A cash card needs an amount and an owner: " + card);
+                }
+                if (card.id() == null) {
+                    card = new CashCard(idGenerator.nextId(), card.amount(), card.owner());
+                } else if (journal.find(card.id()) == null) {
+                    throw new IncorrectUpdateSemanticsDataAccessException(
+                            "Failed to update cash card " + card.id() + ": it doesn't exist");
+                }
+                cards.add(card);
+            }
+            journal.write(cards, List.of());
+            return (List<S>) cards;
+        });
+    }
+
+    @Override
+    public Optional<CashCard> findById(Long id) {
+        return Optional.ofNullable(journal.find(id));
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return journal.find(id) != null;
+    }
+
+    @Override
+    public Iterable<CashCard> findAll() {
+        return journal.findAll();
+    }
+
+    @Override
+    public Iterable<CashCard> findAllById(Iterable<Long> ids) {
+        List<CashCard> cards = new ArrayList<>();
+        for (Long id : ids) {
+            findById(id).ifPresent(cards::add);
+        }
+        return cards;
+    }
+
+    @Override
+    public long count() {
+        return journal.count();
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        deleteAllById(List.of(id));
+    }
+
+    @Override
+    public void delete(CashCard entity) {
+        deleteById(entity.id());
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        journal.locked(() -> {
+            List<Long> existing = new ArrayList<>();
+            for (Long id : ids) {
+                if (journal.find(id) != null) {
+                    existing.add(id);
+                }
+            }
+            if (!existing.isEmpty()) {
+                journal.write(List.of(), existing);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends CashCard> entities) {
+        deleteAllById(StreamSupport.stream(entities.spliterator(), false).map(CashCard::id).toList());
+    }
+
+    @Override
+    public void deleteAll() {
+        journal.locked(() -> {
+            deleteAll(journal.findAll());
+            return null;
+        });
+    }
+
+    @Override
+    public Iterable<CashCard> findAll(Sort sort) {
+        List<CashCard> cards = new ArrayList<>(journal.findAll());
+        cards.sort(comparator(sort));
+        return cards;
+    }
+
+    @Override
+    public Page<CashCard> findAll(Pageable pageable) {
+        List<CashCard> cards = (List<CashCard>) findAll(pageable.getSort());
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(cards);
+        }
+        int from = (int) Math.min(pageable.getOffset(), cards.size());
+        int to = Math.min(from + pageable.getPageSize(), cards.size());
+        return new PageImpl<>(new ArrayList<>(cards.subList(from, to)), pageable, cards.size());
+    }
+
+    private static Comparator<CashCard> comparator(Sort sort) {
+        Comparator<CashCard> comparator = (left, right) -> 0;
+        for (Sort.Order order : sort) {
+            Comparator<CashCard> byProperty = switch (order.getProperty()) {
+                case "id" -> Comparator.comparing(CashCard::id);
+                case "amount" -> Comparator.comparing(CashCard::amount);
+                case "owner" -> Comparator.comparing(CashCard::owner);
+                default -> throw new IllegalArgumentException("No property " + order.getProperty() + " on CashCard");
+            };
+            comparator = comparator.thenComparing(order.isDescending() ? byProperty.reversed() : byProperty);
+        }
+        return comparator.thenComparing(CashCard::id);
+    }
+}
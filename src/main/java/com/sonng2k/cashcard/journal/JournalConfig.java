@@ -0,0 +1,82 @@
+package com.sonng2k.cashcard.journal;
+
+import com.sonng2k.cashcard.CashCard;
+import com.sonng2k.cashcard.CashCardIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+// Keeps cash cards in an embedded CashCardJournal instead of the cash_card table, for deployments where the
+// database round trip of every request is too slow. Run with --spring.profiles.active=journal and
+//   cashcard.journal.directory=/var/lib/cashcard/journal
+//   cashcard.journal.segment-size=64MB          size of one log file
+//   cashcard.journal.force=false                flush every write to disk before answering (see CashCardJournal)
+//   cashcard.journal.compaction-interval=PT1M   how often to check for compaction, PT0S to turn it off
+// Without a directory, the journal lives in a temporary directory that is deleted on shutdown.
+//
+// The journal's repository replaces the Spring Data JDBC one wherever a CashCardRepository is injected. When the
+// journal starts out empty, it imports the cards of the cash_card table once, so switching an existing deployment
+// over keeps its cards. The cash_card table is not kept up to date afterwards, so don't combine this profile with
+// the sharding profile, which moves cards between databases.
+@Configuration
+@Profile("journal")
+class JournalConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalConfig.class);
+
+    // Cards per journal record while importing, so that one record stays well below a segment.
+    private static final int IMPORT_BATCH_SIZE = 1_000;
+
+    @Bean(destroyMethod = "close")
+    CashCardJournal cashCardJournal(@Value("${cashcard.journal.directory:}") String directory,
+                                    @Value("${cashcard.journal.segment-size:64MB}") DataSize segmentSize,
+                                    @Value("${cashcard.journal.force:false}") boolean force,
+                                    @Value("${cashcard.journal.compaction-interval:PT1M}") Duration compactionInterval)
+            throws IOException {
+        boolean temporary = directory.isBlank();
+        Path path = temporary ? Files.createTempDirectory("cashcard-journal") : Path.of(directory);
+        if (temporary) {
+            log.warn("cashcard.journal.directory is not set: cash cards are kept in {} until shutdown only", path);
+        }
+        return new CashCardJournal(path, Math.toIntExact(segmentSize.toBytes()), force, compactionInterval,
+                temporary);
+    }
+
+    @Bean
+    @Primary
+    JournalCashCardRepository journalCashCardRepository(CashCardJournal journal, CashCardIdGenerator idGenerator,
+                                                        JdbcTemplate jdbcTemplate) {
+        if (journal.count() == 0) {
+            importFromDatabase(journal, jdbcTemplate);
+        }
+        return new JournalCashCardRepository(journal, idGenerator);
+    }
+
+    private static void importFromDatabase(CashCardJournal journal, JdbcTemplate jdbcTemplate) {
+        List<CashCard> cards;
+        try {
+            cards = jdbcTemplate.query("SELECT ID, AMOUNT, OWNER FROM cash_card",
+                    (row, rowNum) -> new CashCard(row.getLong(1), row.getDouble(2), row.getString(3)));
+        } catch (BadSqlGrammarException e) {
+            log.info("No cash_card table to import cash cards from");
+            return;
+        }
+        for (int from = 0; from < cards.size(); from += IMPORT_BATCH_SIZE) {
+            journal.write(cards.subList(from, Math.min(from + IMPORT_BATCH_SIZE, cards.size())), List.of());
+        }
+        log.info("Imported {} cash cards from the cash_card table into the journal", cards.size());
+    }
+}
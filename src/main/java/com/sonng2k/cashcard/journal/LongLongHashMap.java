@@ -0,0 +1,145 @@
+package com.sonng2k.cashcard.journal;
+
+// An open-addressing hash map from long to long, without boxing. The ID index of CashCardJournal holds one entry
+// per card: a HashMap<Long, Long> would cost about 80 bytes per entry, this one at most 32.
+
+// Linear probing over two parallel arrays. Key 0 marks a free slot, so a real key 0 is kept in its own field,
+// and removal shifts the rest of the probe chain back instead of leaving tombstones. Not thread-safe.
+final class LongLongHashMap {
+
+    static final long MISSING = -1;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private boolean hasZeroKey;
+    private long zeroKeyValue;
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    LongLongHashMap() {
+        allocate(16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Returns the value of key, or MISSING.
+    long get(long key) {
+        if (key == 0) {
+            return hasZeroKey ? zeroKeyValue : MISSING;
+        }
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            long candidate = keys[slot];
+            if (candidate == key) {
+                return values[slot];
+            }
+            if (candidate == 0) {
+                return MISSING;
+            }
+        }
+    }
+
+    // Returns the previous value of key, or MISSING.
+    long put(long key, long value) {
+        if (key == 0) {
+            long previous = hasZeroKey ? zeroKeyValue : MISSING;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroKeyValue = value;
+            return previous;
+        }
+        int slot = slot(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                long previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * 3 / 4) {
+            resize(keys.length * 2);
+        }
+        return MISSING;
+    }
+
+    // Returns the removed value of key, or MISSING.
+    long remove(long key) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                return MISSING;
+            }
+            hasZeroKey = false;
+            size--;
+            return zeroKeyValue;
+        }
+        int gap = slot(key);
+        for (; keys[gap] != key; gap = (gap + 1) & mask) {
+            if (keys[gap] == 0) {
+                return MISSING;
+            }
+        }
+        long removed = values[gap];
+        // Move back every later entry of the chain whose home slot is not between the gap and its own slot.
+        for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = 0;
+        size--;
+        return removed;
+    }
+
+    void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(0, zeroKeyValue);
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int slot = slot(key);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+}
@@ -0,0 +1,135 @@
+package com.sonng2k.cashcard.profiling;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// What a flight recording says about the usual suspects of a latency jump, boiled down on the server so nobody
+// has to open JDK Mission Control to get a first idea:
+// - cpu: methods on top of the stack in jdk.ExecutionSample, i.e. where the CPU time goes
+// - allocation: methods on top of the stack in jdk.ObjectAllocationSample, weighted by the bytes each sample
+//   stands for, i.e. who feeds the garbage collector
+// - locks: jdk.JavaMonitorEnter (synchronized) and jdk.ThreadPark (java.util.concurrent locks) per lock class
+// - gc: jdk.GarbageCollection pauses
+// Methods are named by their top frame only; download the .jfr for full stack traces.
+public record JfrSummary(long cpuSamples,
+                         List<Hotspot> cpu,
+                         long sampledAllocationBytes,
+                         List<Hotspot> allocation,
+                         List<Contention> locks,
+                         GcPauses gc) {
+
+    public record Hotspot(String method, long value, double percent) {
+    }
+
+    public record Contention(String lock, long events, double totalMillis, double maxMillis) {
+    }
+
+    public record GcPauses(long collections, double totalMillis, double maxMillis, Map<String, Long> collectors) {
+    }
+
+    public static JfrSummary read(Path file, int top) throws IOException {
+        Map<String, Long> cpu = new HashMap<>();
+        Map<String, Long> allocation = new HashMap<>();
+        Map<String, ContentionTotals> locks = new HashMap<>();
+        Map<String, Long> collectors = new TreeMap<>();
+        long collections = 0;
+        Duration totalPause = Duration.ZERO;
+        Duration maxPause = Duration.ZERO;
+
+        try (RecordingFile recording = new RecordingFile(file)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                switch (event.getEventType().getName()) {
+                    case "jdk.ExecutionSample" -> cpu.merge(topMethod(event), 1L, Long::sum);
+                    case "jdk.ObjectAllocationSample" ->
+                            allocation.merge(topMethod(event), event.getLong("weight"), Long::sum);
+                    case "jdk.JavaMonitorEnter" -> locks
+                            .computeIfAbsent("monitor " + className(event, "monitorClass"), key -> new ContentionTotals())
+                            .add(event.getDuration());
+                    case "jdk.ThreadPark" -> locks
+                            .computeIfAbsent("park " + className(event, "parkedClass"), key -> new ContentionTotals())
+                            .add(event.getDuration());
+                    case "jdk.GarbageCollection" -> {
+                        collections++;
+                        collectors.merge(event.getString("name"), 1L, Long::sum);
+                        totalPause = totalPause.plus(event.getDuration("sumOfPauses"));
+                        Duration longest = event.getDuration("longestPause");
+                        if (longest.compareTo(maxPause) > 0) {
+                            maxPause = longest;
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        long cpuSamples = cpu.values().stream().mapToLong(Long::longValue).sum();
+        long allocatedBytes = allocation.values().stream().mapToLong(Long::longValue).sum();
+        List<Contention> contention = locks.entrySet().stream()
+                .map(entry -> entry.getValue().toContention(entry.getKey()))
+                .sorted(Comparator.comparingDouble(Contention::totalMillis).reversed())
+                .limit(top)
+                .toList();
+        return new JfrSummary(cpuSamples, hotspots(cpu, cpuSamples, top),
+                allocatedBytes, hotspots(allocation, allocatedBytes, top),
+                contention,
+                new GcPauses(collections, millis(totalPause), millis(maxPause), collectors));
+    }
+
+    private static List<Hotspot> hotspots(Map<String, Long> values, long total, int top) {
+        return values.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(top)
+                .map(entry -> new Hotspot(entry.getKey(), entry.getValue(),
+                        Math.round(entry.getValue() * 1000.0 / total) / 10.0))
+                .toList();
+    }
+
+    private static String topMethod(RecordedEvent event) {
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return "<no stack trace>";
+        }
+        RecordedFrame frame = stackTrace.getFrames().get(0);
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+    }
+
+    private static String className(RecordedEvent event, String field) {
+        return event.getClass(field) != null ? event.getClass(field).getName() : "<unknown>";
+    }
+
+    private static double millis(Duration duration) {
+        return duration.toNanos() / 1000 / 1000.0;
+    }
+
+    private static final class ContentionTotals {
+
+        private long events;
+        private Duration total = Duration.ZERO;
+        private Duration max = Duration.ZERO;
+
+        void add(Duration duration) {
+            events++;
+            total = total.plus(duration);
+            if (duration.compareTo(max) > 0) {
+                max = duration;
+            }
+        }
+
+        Contention toContention(String lock) {
+            return new Contention(lock, events, millis(total), millis(max));
+        }
+    }
+}
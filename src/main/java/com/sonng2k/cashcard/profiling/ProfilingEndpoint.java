@@ -0,0 +1,206 @@
+package com.sonng2k.cashcard.profiling;
+
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.boot.actuate.endpoint.web.annotation.WebEndpoint;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Java Flight Recorder on demand, at /actuator/profiling (ops only, see SecurityConfig):
+//
+//   POST   /actuator/profiling                          {"settings": "profile", "duration": "PT30S"}
+//          starts a recording; settings is a JFR configuration ("default" ~1% overhead, "profile" ~2%)
+//   GET    /actuator/profiling                          lists the recordings that are kept
+//   POST   /actuator/profiling/{id}                     stops a recording before its duration is up
+//   GET    /actuator/profiling/{id}                     the recording and, once it has stopped, a JfrSummary
+//   GET    /actuator/profiling/{id}/recording.jfr       the raw recording, for JDK Mission Control or `jfr print`
+//   DELETE /actuator/profiling/{id}                     discards a recording
+//
+// Only one recording runs at a time (starting another one answers 429), for at most MAX_DURATION, and only the
+// last KEPT recordings are kept on disk, so a forgotten recording can't fill the disk.
+@Component
+@WebEndpoint(id = "profiling")
+public class ProfilingEndpoint {
+
+    static final Duration DEFAULT_DURATION = Duration.ofSeconds(30);
+    static final Duration MAX_DURATION = Duration.ofMinutes(10);
+    static final String FILE_NAME = "recording.jfr";
+
+    private static final Logger log = LoggerFactory.getLogger(ProfilingEndpoint.class);
+
+    private static final int KEPT = 3;
+    private static final int TOP = 20;
+
+    private final Path directory;
+
+    // Oldest first. Guarded by this.
+    private final Deque<Recording> recordings = new ArrayDeque<>();
+    private final Map<Long, JfrSummary> summaries = new ConcurrentHashMap<>();
+
+    public ProfilingEndpoint(@Value("${cashcard.profiling.directory:}") String directory) throws IOException {
+        this.directory = directory.isBlank()
+                ? Files.createTempDirectory("cashcard-profiling")
+                : Files.createDirectories(Path.of(directory));
+    }
+
+    public record RecordingInfo(long id, String settings, String state, Instant startTime, Duration duration) {
+    }
+
+    public record Report(RecordingInfo recording, JfrSummary summary) {
+    }
+
+    @ReadOperation
+    public synchronized List<RecordingInfo> recordings() {
+        return recordings.stream().map(ProfilingEndpoint::info).toList();
+    }
+
+    @WriteOperation
+    public synchronized WebEndpointResponse<RecordingInfo> start(@Nullable String settings,
+                                                                 @Nullable Duration duration) {
+        if (recordings.stream().anyMatch(recording -> recording.getState() == RecordingState.RUNNING)) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_TOO_MANY_REQUESTS);
+        }
+        Duration length = duration != null ? duration : DEFAULT_DURATION;
+        if (length.isNegative() || length.isZero() || length.compareTo(MAX_DURATION) > 0) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_BAD_REQUEST);
+        }
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(settings != null ? settings : "profile");
+        } catch (IOException | ParseException e) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_BAD_REQUEST);
+        }
+
+        Recording recording = new Recording(configuration);
+        recording.setName(configuration.getName());
+        recording.setToDisk(true);
+        recording.setDuration(length);
+        try {
+            recording.setDestination(directory.resolve("recording-" + recording.getId() + ".jfr"));
+        } catch (IOException e) {
+            recording.close();
+            throw new UncheckedIOException(e);
+        }
+        recording.start();
+        recordings.addLast(recording);
+        while (recordings.size() > KEPT) {
+            discard(recordings.removeFirst());
+        }
+        log.info("Started {} flight recording {} for {}", configuration.getName(), recording.getId(), length);
+        return new WebEndpointResponse<>(info(recording), WebEndpointResponse.STATUS_OK);
+    }
+
+    @WriteOperation
+    public synchronized WebEndpointResponse<RecordingInfo> stop(@Selector long id) {
+        Recording recording = find(id);
+        if (recording == null) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        if (recording.getState() == RecordingState.RUNNING) {
+            recording.stop();
+        }
+        return new WebEndpointResponse<>(info(recording), WebEndpointResponse.STATUS_OK);
+    }
+
+    // Summarising a ten minute recording takes a few seconds, so it's done once per recording, on first request.
+    @ReadOperation
+    public WebEndpointResponse<Report> report(@Selector long id) {
+        Recording recording;
+        synchronized (this) {
+            recording = find(id);
+        }
+        if (recording == null) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        if (!finished(recording)) {
+            return new WebEndpointResponse<>(new Report(info(recording), null), WebEndpointResponse.STATUS_OK);
+        }
+        JfrSummary summary = summaries.computeIfAbsent(id, key -> {
+            try {
+                return JfrSummary.read(recording.getDestination(), TOP);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return new WebEndpointResponse<>(new Report(info(recording), summary), WebEndpointResponse.STATUS_OK);
+    }
+
+    @ReadOperation(produces = "application/octet-stream")
+    public synchronized WebEndpointResponse<Resource> file(@Selector long id, @Selector String name) {
+        Recording recording = find(id);
+        if (recording == null || !FILE_NAME.equals(name) || !finished(recording)) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        return new WebEndpointResponse<>(new FileSystemResource(recording.getDestination()),
+                WebEndpointResponse.STATUS_OK);
+    }
+
+    @DeleteOperation
+    public synchronized WebEndpointResponse<Void> delete(@Selector long id) {
+        Recording recording = find(id);
+        if (recording == null) {
+            return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+        }
+        recordings.remove(recording);
+        discard(recording);
+        return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NO_CONTENT);
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        recordings.forEach(this::discard);
+        recordings.clear();
+    }
+
+    // JFR writes a stopped recording to its destination and then closes it.
+    private static boolean finished(Recording recording) {
+        return recording.getState() == RecordingState.STOPPED || recording.getState() == RecordingState.CLOSED;
+    }
+
+    private Recording find(long id) {
+        return recordings.stream().filter(recording -> recording.getId() == id).findFirst().orElse(null);
+    }
+
+    private void discard(Recording recording) {
+        Path file = recording.getDestination();
+        recording.close();
+        summaries.remove(recording.getId());
+        try {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Could not delete flight recording {}", file, e);
+        }
+    }
+
+    private static RecordingInfo info(Recording recording) {
+        return new RecordingInfo(recording.getId(), recording.getName(), recording.getState().name(),
+                recording.getStartTime(), recording.getDuration());
+    }
+}
@@ -0,0 +1,54 @@
+package com.sonng2k.cashcard.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Maps owners to shard names on a hash ring. Every shard owns VIRTUAL_NODES points on the ring, and an owner
+// belongs to the shard of the first point at or after the owner's hash.
+//
+// Points depend only on the shard's name, never on its position in the list, so adding a shard only takes
+// owners away from existing shards (about 1/n of them) instead of reshuffling everybody the way hash % n would.
+final class ConsistentHashRing {
+
+    static final int VIRTUAL_NODES = 128;
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    ConsistentHashRing(List<String> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        for (String shard : shards) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                String previous = ring.put(hash(shard + "#" + i), shard);
+                if (previous != null && !previous.equals(shard)) {
+                    // Astronomically unlikely with 64-bit hashes, but a silent collision would move owners.
+                    throw new IllegalStateException("Shards " + previous + " and " + shard + " collide on the ring");
+                }
+            }
+        }
+    }
+
+    String shardFor(String owner) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(owner));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    // FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer so similar keys spread over the ring.
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,28 @@
+package com.sonng2k.cashcard.sharding;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The DataSource the repositories see: every connection comes from the shard of the owner bound in
+// ShardContext, or from the default shard when no owner is bound (schema initialisation, Hibernate's startup
+// metadata lookup, ...). The owner is read when a connection is taken, i.e. when a transaction starts.
+class OwnerRoutingDataSource extends AbstractRoutingDataSource {
+
+    private final ShardRouter router;
+
+    OwnerRoutingDataSource(ShardRouter router) {
+        this.router = router;
+        setTargetDataSources(new LinkedHashMap<>(router.shards()));
+        setDefaultTargetDataSource(router.shards().get(router.defaultShard()));
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String owner = ShardContext.currentOwner();
+        return owner != null ? router.shardFor(owner) : null;
+    }
+}
@@ -0,0 +1,48 @@
+package com.sonng2k.cashcard.sharding;
+
+import java.util.function.Supplier;
+
+// The owner whose shard the current thread reads and writes. Web requests get it from ShardRoutingInterceptor;
+// background work binds it with callAs(), or with ShardRouter.callAs() when it must also hold the owner's lock
+// (as the write-behind flusher does).
+// With no owner bound, OwnerRoutingDataSource falls back to the first shard.
+public final class ShardContext {
+
+    private static final ThreadLocal<String> OWNER = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static String currentOwner() {
+        return OWNER.get();
+    }
+
+    public static <T> T callAs(String owner, Supplier<T> work) {
+        String previous = OWNER.get();
+        OWNER.set(owner);
+        try {
+            return work.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    public static void runAs(String owner, Runnable work) {
+        callAs(owner, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    static void bind(String owner) {
+        OWNER.set(owner);
+    }
+
+    static void restore(String previous) {
+        if (previous == null) {
+            OWNER.remove();
+        } else {
+            OWNER.set(previous);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.sonng2k.cashcard.sharding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import javax.sql.DataSource;
+
+// Moves owners whose cards are not on the shard the ring assigns them to. That happens after a shard is added
+// to cashcard.sharding.urls (the ring gives the new shard about 1/n of the owners), and to the seed data, which
+// Spring Boot loads into the default shard.
+//
+// An owner is moved while the application is serving traffic:
+// 1. take the owner's write lock, so the owner's requests wait (other owners are not affected)
+// 2. copy the owner's cards to the target shard in one transaction, skipping cards already there
+// 3. delete them from the source shard in one transaction
+// If the process dies between 2 and 3, the cards exist on both shards. Requests only ever read the target, and
+// the next rebalance() finds the leftovers and finishes step 3, so a move can always simply be retried.
+//
+// Exposed as the "shards" actuator endpoint: GET shows where owners live, POST runs rebalance(). Like every
+// actuator endpoint except health, it is not exposed over HTTP unless listed in
+// management.endpoints.web.exposure.include.
+@Endpoint(id = "shards")
+public class ShardRebalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    private final ShardRouter router;
+    private final Map<String, JdbcTemplate> jdbc = new LinkedHashMap<>();
+    private final Map<String, TransactionTemplate> transactions = new LinkedHashMap<>();
+
+    public ShardRebalancer(ShardRouter router) {
+        this.router = router;
+        router.shards().forEach((name, dataSource) -> {
+            jdbc.put(name, new JdbcTemplate(dataSource));
+            transactions.put(name, new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+        });
+    }
+
+    public record ShardSummary(int owners, long cards, int misplacedOwners) {
+    }
+
+    public record RebalanceResult(int movedOwners, int movedCards) {
+    }
+
+    @ReadOperation
+    public Map<String, ShardSummary> shards() {
+        Map<String, ShardSummary> summary = new LinkedHashMap<>();
+        jdbc.forEach((shard, template) -> {
+            List<String> owners = distinctOwners(template);
+            Long cards = template.queryForObject("SELECT COUNT(*) FROM cash_card", Long.class);
+            int misplaced = (int) owners.stream().filter(owner -> !router.shardFor(owner).equals(shard)).count();
+            summary.put(shard, new ShardSummary(owners.size(), cards == null ? 0 : cards, misplaced));
+        });
+        return summary;
+    }
+
+    @ReadOperation
+    public String shardOf(@Selector String owner) {
+        return router.shardFor(owner);
+    }
+
+    @WriteOperation
+    public RebalanceResult rebalance() {
+        int movedOwners = 0;
+        int movedCards = 0;
+        for (Map.Entry<String, JdbcTemplate> source : jdbc.entrySet()) {
+            for (String owner : distinctOwners(source.getValue())) {
+                String target = router.shardFor(owner);
+                if (!target.equals(source.getKey())) {
+                    movedCards += moveOwner(owner, source.getKey(), target);
+                    movedOwners++;
+                }
+            }
+        }
+        if (movedOwners > 0) {
+            log.info("Rebalanced {} owners ({} cash cards)", movedOwners, movedCards);
+        }
+        return new RebalanceResult(movedOwners, movedCards);
+    }
+
+    // Returns the number of cards copied to the target shard.
+    public int moveOwner(String owner, String from, String to) {
+        if (!jdbc.containsKey(from) || !jdbc.containsKey(to)) {
+            throw new IllegalArgumentException("Unknown shard " + (jdbc.containsKey(from) ? to : from));
+        }
+        Lock lock = router.lockFor(owner).writeLock();
+        lock.lock();
+        try {
+            List<Object[]> cards = jdbc.get(from).query("SELECT ID, AMOUNT, OWNER FROM cash_card WHERE OWNER = ?",
+                    (rs, rowNum) -> new Object[]{rs.getLong(1), rs.getBigDecimal(2), rs.getString(3)}, owner);
+            if (cards.isEmpty()) {
+                return 0;
+            }
+            // IDs are globally unique (CashCardIdGenerator), so a card already on the target is a copy from an
+            // earlier, interrupted move.
+            Set<Long> present = new HashSet<>(jdbc.get(to)
+                    .queryForList("SELECT ID FROM cash_card WHERE OWNER = ?", Long.class, owner));
+            List<Object[]> missing = cards.stream().filter(card -> !present.contains((Long) card[0])).toList();
+            transactions.get(to).executeWithoutResult(status -> jdbc.get(to)
+                    .batchUpdate("INSERT INTO cash_card (ID, AMOUNT, OWNER) VALUES (?, ?, ?)", missing));
+
+            List<Object[]> ids = cards.stream().map(card -> new Object[]{card[0]}).toList();
+            transactions.get(from).executeWithoutResult(status -> jdbc.get(from)
+                    .batchUpdate("DELETE FROM cash_card WHERE ID = ?", ids));
+            log.debug("Moved {} cash cards of {} from {} to {}", cards.size(), owner, from, to);
+            return missing.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static List<String> distinctOwners(JdbcTemplate template) {
+        return template.queryForList("SELECT DISTINCT OWNER FROM cash_card", String.class);
+    }
+}
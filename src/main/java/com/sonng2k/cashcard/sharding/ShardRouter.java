@@ -0,0 +1,73 @@
+package com.sonng2k.cashcard.sharding;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+// Knows the shards and which one each owner lives on.
+//
+// Every request for an owner holds the owner's read lock while it touches the database, and ShardRebalancer
+// holds the write lock while it moves the owner's cards, so nobody sees an owner half-moved. Locks are striped:
+// owners that share a stripe only wait for each other while one of them is being moved.
+public class ShardRouter {
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final Map<String, DataSource> shards;
+    private final ConsistentHashRing ring;
+    private final ReadWriteLock[] locks = new ReadWriteLock[LOCK_STRIPES];
+
+    // shards keeps its iteration order; the first shard is the default for work that isn't bound to an owner.
+    public ShardRouter(Map<String, DataSource> shards) {
+        this.shards = Collections.unmodifiableMap(new LinkedHashMap<>(shards));
+        this.ring = new ConsistentHashRing(List.copyOf(shards.keySet()));
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public Map<String, DataSource> shards() {
+        return shards;
+    }
+
+    public String defaultShard() {
+        return shards.keySet().iterator().next();
+    }
+
+    public String shardFor(String owner) {
+        return ring.shardFor(owner);
+    }
+
+    public ReadWriteLock lockFor(String owner) {
+        return locks[(int) Math.floorMod(ConsistentHashRing.hash(owner), (long) LOCK_STRIPES)];
+    }
+
+    // Runs work for owner outside a web request (such as the write-behind flush) the way a request runs: bound
+    // to the owner's shard and holding the owner's read lock, so it can't see the owner half-moved.
+    public <T> T callAs(String owner, Supplier<T> work) {
+        Lock lock = lockFor(owner).readLock();
+        lock.lock();
+        try {
+            return ShardContext.callAs(owner, work);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The shard DataSources are not beans of their own (a second DataSource bean would switch off Spring Boot's
+    // DataSource auto-configuration), so they are closed here.
+    public void close() throws Exception {
+        for (DataSource shard : shards.values()) {
+            if (shard instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+}
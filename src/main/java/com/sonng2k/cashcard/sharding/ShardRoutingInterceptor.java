@@ -0,0 +1,43 @@
+package com.sonng2k.cashcard.sharding;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.security.Principal;
+import java.util.concurrent.locks.Lock;
+
+// Binds the authenticated owner to the request thread, and holds the owner's read lock until the request is
+// done, so ShardRebalancer can't move the owner's cards from under a running request.
+class ShardRoutingInterceptor implements HandlerInterceptor {
+
+    private static final String LOCK_ATTRIBUTE = ShardRoutingInterceptor.class.getName() + ".lock";
+
+    private final ShardRouter router;
+
+    ShardRoutingInterceptor(ShardRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Principal principal = request.getUserPrincipal();
+        if (principal != null) {
+            Lock lock = router.lockFor(principal.getName()).readLock();
+            lock.lock();
+            request.setAttribute(LOCK_ATTRIBUTE, lock);
+            ShardContext.bind(principal.getName());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(LOCK_ATTRIBUTE) instanceof Lock lock) {
+            request.removeAttribute(LOCK_ATTRIBUTE);
+            ShardContext.restore(null);
+            lock.unlock();
+        }
+    }
+}
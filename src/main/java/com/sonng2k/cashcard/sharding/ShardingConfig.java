@@ -0,0 +1,100 @@
+package com.sonng2k.cashcard.sharding;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+// Splits cash_card over several databases by owner. Run with --spring.profiles.active=sharding and
+//   cashcard.sharding.urls=jdbc:h2:mem:shard0,jdbc:h2:mem:shard1,jdbc:h2:mem:shard2
+// The shards are named shard-0, shard-1, ... after their position in that list, and ConsistentHashRing places
+// owners by name, so only ever append URLs. After appending one, the startup rebalance moves the owners that
+// now belong to the new shard.
+//
+// All of an owner's cards live on one shard, which works because every query of the Cash Card API is scoped
+// to a single owner (see CashCardRepository). IDs come from CashCardIdGenerator, so they stay unique across
+// shards and a card keeps its ID when its owner moves.
+@Configuration
+@Profile("sharding")
+class ShardingConfig {
+
+    private static final String OPTIONAL_PREFIX = "optional:";
+
+    @Bean
+    ShardRouter shardRouter(@Value("${cashcard.sharding.urls}") List<String> urls,
+                            @Value("${cashcard.sharding.username:sa}") String username,
+                            @Value("${cashcard.sharding.password:}") String password) {
+        Map<String, DataSource> shards = new LinkedHashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            shards.put("shard-" + i, DataSourceBuilder.create()
+                    .url(urls.get(i).trim())
+                    .username(username)
+                    .password(password)
+                    .build());
+        }
+        return new ShardRouter(shards);
+    }
+
+    // Spring Boot's SQL initialisation (schema and seed data) runs against this DataSource and so ends up on the
+    // default shard. The other shards get the schema here, before anything can route to them.
+    @Bean
+    @Primary
+    DataSource dataSource(ShardRouter router,
+                          @Value("${spring.sql.init.schema-locations:}") List<String> schemaLocations) {
+        ResourceLoader resourceLoader = new DefaultResourceLoader();
+        ResourceDatabasePopulator schema = new ResourceDatabasePopulator();
+        for (String location : schemaLocations) {
+            if (location.isBlank()) {
+                continue;
+            }
+            boolean optional = location.startsWith(OPTIONAL_PREFIX);
+            Resource resource = resourceLoader.getResource(
+                    optional ? location.substring(OPTIONAL_PREFIX.length()) : location);
+            if (resource.exists() || !optional) {
+                schema.addScript(resource);
+            }
+        }
+        router.shards().forEach((name, shard) -> {
+            if (!name.equals(router.defaultShard())) {
+                DatabasePopulatorUtils.execute(schema, shard);
+            }
+        });
+        return new OwnerRoutingDataSource(router);
+    }
+
+    @Bean
+    ShardRebalancer shardRebalancer(ShardRouter router) {
+        return new ShardRebalancer(router);
+    }
+
+    @Bean
+    ApplicationRunner rebalanceOnStartup(ShardRebalancer rebalancer) {
+        return args -> rebalancer.rebalance();
+    }
+
+    @Bean
+    WebMvcConfigurer shardRoutingConfigurer(ShardRouter router) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(new ShardRoutingInterceptor(router)).addPathPatterns("/cashcards/**");
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package com.sonng2k.messagingrabbitmq;
+
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reads the layout written by BinaryWriter directly from a message body, without copying it first.
+final class BinaryReader {
+
+    private final byte[] body;
+    private int position;
+
+    BinaryReader(byte[] body) {
+        this.body = body;
+    }
+
+    byte readByte() {
+        require(1);
+        return body[position++];
+    }
+
+    short readShort() {
+        require(2);
+        return (short) (((body[position++] & 0xFF) << 8) | (body[position++] & 0xFF));
+    }
+
+    int readInt() {
+        require(4);
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (body[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    long readLong() {
+        require(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (body[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new MessageConversionException("Malformed length prefix at byte " + position);
+    }
+
+    byte[] readBytes() {
+        int length = readLength();
+        byte[] value = Arrays.copyOfRange(body, position, position + length);
+        position += length;
+        return value;
+    }
+
+    String readString() {
+        int length = readLength();
+        String value = new String(body, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    boolean hasRemaining() {
+        return position < body.length;
+    }
+
+    private int readLength() {
+        int length = readVarint();
+        if (length < 0) {
+            throw new MessageConversionException("Negative length prefix at byte " + position);
+        }
+        require(length);
+        return length;
+    }
+
+    private void require(int length) {
+        if (body.length - position < length) {
+            throw new MessageConversionException("Truncated message: needed " + length + " more bytes at byte "
+                    + position + " of " + body.length);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.sonng2k.messagingrabbitmq;
+
+// A top-up (positive amountCents) or spend (negative) on a cash card, published to the topic exchange with a
+// routing key under `cashcard.transaction.` and posted by CardTransactionBatchListener.
+
+// transactionId is chosen by the sender and must be unique per transaction: a transaction is posted at most once
+// per ID, so resending after a timeout is safe.
+public record CardTransaction(String transactionId, long cardId, long amountCents) {
+}
@@ -0,0 +1,197 @@
+package com.sonng2k.messagingrabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Posts CardTransaction messages to cash_card in micro-batches: the container hands over up to batch-size
+// messages at once, and the whole batch costs one database transaction instead of one per message.
+//
+// For each batch:
+// 1. drop transactions whose ID is already in card_transaction (a redelivery of something already posted)
+// 2. net the remaining amounts per card, so 50 top-ups of the same card become one UPDATE
+// 3. in one database transaction: record the transactions in card_transaction, and apply the net amounts with
+//    one batched UPDATE, in card ID order so concurrent writers always lock rows in the same order
+// 4. after the commit, ack every message of the batch with a single multiple-ack
+// If anything in 3 fails, nothing of the batch is posted. When the database refused the data itself (a
+// DataIntegrityViolationException, e.g. a transaction ID too long for the journal or an amount that overflows),
+// one transaction of the batch is to blame and would fail on every redelivery, holding up all the others. The
+// batch is then split in halves, each posted on its own and split again if it fails, until every good
+// transaction is posted and acked and the culprit is rejected without requeueing (so it is dead-lettered if the
+// queue has a dead-letter exchange, and logged at ERROR either way). Any other failure, such as the database
+// being down, isn't the messages' fault: the whole batch is nacked back onto the queue. If the process dies
+// between 3 and 4, the broker redelivers the batch and step 1 drops it. A message that isn't a CardTransaction
+// can never succeed, so it is rejected on its own instead of holding up the batch.
+//
+// The container must run with AcknowledgeMode.MANUAL and consumerBatchEnabled.
+public class CardTransactionBatchListener implements ChannelAwareBatchMessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(CardTransactionBatchListener.class);
+
+    private final MessageConverter messageConverter;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private record Delivery(long deliveryTag, CardTransaction transaction) {
+    }
+
+    public CardTransactionBatchListener(MessageConverter messageConverter, JdbcTemplate jdbcTemplate,
+                                        PlatformTransactionManager transactionManager) {
+        this.messageConverter = messageConverter;
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    // Containers without consumerBatchEnabled (and spring-rabbit-test's TestRabbitTemplate) deliver messages one
+    // at a time; those are simply batches of one.
+    @Override
+    public void onMessage(Message message, Channel channel) throws IOException {
+        onMessageBatch(List.of(message), channel);
+    }
+
+    @Override
+    public void onMessageBatch(List<Message> messages, Channel channel) {
+        List<Delivery> deliveries = new ArrayList<>(messages.size());
+        long highestTag = -1;
+        for (Message message : messages) {
+            long deliveryTag = message.getMessageProperties().getDeliveryTag();
+            CardTransaction transaction = decode(message);
+            if (transaction == null) {
+                settle("reject", deliveryTag, () -> channel.basicReject(deliveryTag, false));
+            } else {
+                deliveries.add(new Delivery(deliveryTag, transaction));
+                highestTag = Math.max(highestTag, deliveryTag);
+            }
+        }
+        if (deliveries.isEmpty()) {
+            return;
+        }
+        // Deliveries rejected above are already settled, so multiple = true covers exactly this batch.
+        final long lastTag = highestTag;
+        try {
+            transactionTemplate.executeWithoutResult(status -> post(deliveries));
+        } catch (DataIntegrityViolationException e) {
+            log.warn("A batch of {} card transactions holds one that can't be posted, posting it in halves",
+                    deliveries.size(), e);
+            postInHalves(deliveries, channel);
+            return;
+        } catch (RuntimeException e) {
+            log.warn("Posting a batch of {} card transactions failed, requeueing it", deliveries.size(), e);
+            settle("nack", lastTag, () -> channel.basicNack(lastTag, true, true));
+            return;
+        }
+        settle("ack", lastTag, () -> channel.basicAck(lastTag, true));
+    }
+
+    // The halves finish in any order, so their deliveries are settled one by one (multiple = false).
+    private void postInHalves(List<Delivery> deliveries, Channel channel) {
+        int middle = deliveries.size() / 2;
+        List<List<Delivery>> halves = List.of(deliveries.subList(0, middle),
+                deliveries.subList(middle, deliveries.size()));
+        for (List<Delivery> half : halves) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> post(half));
+            } catch (DataIntegrityViolationException e) {
+                if (half.size() > 1) {
+                    postInHalves(half, channel);
+                } else {
+                    Delivery poison = half.get(0);
+                    log.error("Rejecting delivery {}: card transaction {} can't be posted", poison.deliveryTag(),
+                            poison.transaction(), e);
+                    settle("reject", poison.deliveryTag(), () -> channel.basicReject(poison.deliveryTag(), false));
+                }
+                continue;
+            } catch (RuntimeException e) {
+                log.warn("Posting {} card transactions failed, requeueing them", half.size(), e);
+                half.forEach(delivery -> settle("nack", delivery.deliveryTag(),
+                        () -> channel.basicNack(delivery.deliveryTag(), false, true)));
+                continue;
+            }
+            half.forEach(delivery -> settle("ack", delivery.deliveryTag(),
+                    () -> channel.basicAck(delivery.deliveryTag(), false)));
+        }
+    }
+
+    private void post(List<Delivery> deliveries) {
+        Map<String, CardTransaction> byId = new LinkedHashMap<>();
+        deliveries.forEach(delivery -> byId.putIfAbsent(delivery.transaction().transactionId(),
+                delivery.transaction()));
+        Set<String> posted = new HashSet<>(namedParameterJdbcTemplate.queryForList(
+                "SELECT TRANSACTION_ID FROM card_transaction WHERE TRANSACTION_ID IN (:ids)",
+                Map.of("ids", byId.keySet()), String.class));
+        byId.keySet().removeAll(posted);
+        if (byId.isEmpty()) {
+            return;
+        }
+
+        Map<Long, Long> netCents = new TreeMap<>();
+        List<Object[]> journal = new ArrayList<>(byId.size());
+        for (CardTransaction transaction : byId.values()) {
+            netCents.merge(transaction.cardId(), transaction.amountCents(), Long::sum);
+            journal.add(new Object[]{transaction.transactionId(), transaction.cardId(),
+                    BigDecimal.valueOf(transaction.amountCents(), 2)});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO card_transaction (TRANSACTION_ID, CARD_ID, AMOUNT) VALUES (?, ?, ?)",
+                journal);
+
+        List<Object[]> updates = new ArrayList<>(netCents.size());
+        netCents.forEach((cardId, cents) -> updates.add(new Object[]{BigDecimal.valueOf(cents, 2), cardId}));
+        int[] counts = jdbcTemplate.batchUpdate("UPDATE cash_card SET AMOUNT = AMOUNT + ? WHERE ID = ?", updates);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                // Still journaled, so it can be reconciled once somebody knows where the money should go.
+                log.warn("Card transactions for unknown cash card {} were recorded but not applied",
+                        updates.get(i)[1]);
+            }
+        }
+    }
+
+    private CardTransaction decode(Message message) {
+        try {
+            if (messageConverter.fromMessage(message) instanceof CardTransaction transaction) {
+                return transaction;
+            }
+            log.error("Rejecting delivery {}: not a CardTransaction",
+                    message.getMessageProperties().getDeliveryTag());
+        } catch (MessageConversionException e) {
+            log.error("Rejecting delivery {}: unreadable", message.getMessageProperties().getDeliveryTag(), e);
+        }
+        return null;
+    }
+
+    private static void settle(String action, long deliveryTag, Settlement settlement) {
+        try {
+            settlement.run();
+        } catch (IOException | RuntimeException e) {
+            // The broker redelivers whatever was not acked on a channel that went away; card_transaction keeps
+            // posted transactions from being applied twice.
+            log.warn("Could not {} delivery {}", action, deliveryTag, e);
+        }
+    }
+
+    private interface Settlement {
+
+        void run() throws IOException;
+    }
+}
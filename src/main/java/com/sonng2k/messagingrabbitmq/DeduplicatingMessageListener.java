@@ -0,0 +1,52 @@
+package com.sonng2k.messagingrabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Idempotent consumer: skips messages whose message ID was already processed within the DeduplicationWindow.
+
+// It runs inside a KeyPartitionedMessageListener lane, which acks the delivery when this listener returns, so a
+// duplicate is acked without reaching the Receiver. A message ID is only recorded after the delegate succeeded:
+// a message that failed is not a duplicate when it comes back. Redeliveries carry the same routing key (and
+// partition key) as the original, so they land on the same lane and can't race it.
+// Messages without a message ID can't be recognized and are always processed. The application's
+// RecordMessageConverter gives every message it sends an ID (see MessagingRabbitmqApplication.messageConverter()).
+public class DeduplicatingMessageListener implements ChannelAwareMessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(DeduplicatingMessageListener.class);
+
+    private final DeduplicationWindow window;
+    private final ChannelAwareMessageListener delegate;
+    private final AtomicLong duplicates = new AtomicLong();
+
+    public DeduplicatingMessageListener(DeduplicationWindow window, ChannelAwareMessageListener delegate) {
+        this.window = window;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onMessage(Message message, Channel channel) throws Exception {
+        String messageId = message.getMessageProperties().getMessageId();
+        if (messageId == null) {
+            delegate.onMessage(message, channel);
+            return;
+        }
+        long hash = DeduplicationWindow.hash(messageId);
+        if (window.contains(hash)) {
+            duplicates.incrementAndGet();
+            log.debug("Skipping duplicate message {}", messageId);
+            return;
+        }
+        delegate.onMessage(message, channel);
+        window.add(hash);
+    }
+
+    public long duplicates() {
+        return duplicates.get();
+    }
+}
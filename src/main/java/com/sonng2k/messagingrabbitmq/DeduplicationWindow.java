@@ -0,0 +1,203 @@
+package com.sonng2k.messagingrabbitmq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.LongSupplier;
+
+// Remembers the IDs of recently processed messages so redeliveries can be recognized.
+
+// IDs are stored as 64-bit hashes in time slices: a new slice starts every window/slices, and a slice is dropped
+// as a whole once it is older than the window. Memory is therefore bounded by the number of IDs seen in one
+// window, and expiring is O(1) per slice instead of per ID. A lookup probes one hash set per slice (a constant
+// number). With the optional Bloom filters, each slice has its own filter in front of its set, which answers
+// "never seen" for 99% of new IDs with a few bit reads; a filter is dropped together with its slice, so nothing
+// is ever rebuilt.
+//
+// Memory: a LongHashSet slot is 8 bytes at 37-75% load, so 11-22 MB per million tracked IDs, plus about 1.2 MB
+// per million for the Bloom filters at a 1% false-positive rate. memoryBytes() reports the exact figure.
+//
+// Two different IDs collide only if their 64-bit hashes are equal (about 1 in 10^7 for a billion IDs per
+// window), in which case the second message would be skipped as a duplicate.
+public class DeduplicationWindow implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(DeduplicationWindow.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x44445550; // "DDUP"
+
+    // filter is null without Bloom filters.
+    private record Slice(long start, LongHashSet ids, LongBloomFilter filter) {
+
+        boolean contains(long hash) {
+            return (filter == null || filter.mightContain(hash)) && ids.contains(hash);
+        }
+
+        void add(long hash) {
+            if (ids.add(hash) && filter != null) {
+                filter.put(hash);
+            }
+        }
+    }
+
+    private final long windowMillis;
+    private final long sliceMillis;
+    private final int expectedIdsPerSlice;
+    private final boolean bloomFilter;
+    private final Path snapshotFile;
+    private final LongSupplier clock;
+    private final Deque<Slice> slices = new ArrayDeque<>();
+
+    public DeduplicationWindow(Duration window, int sliceCount, int expectedIdsPerSlice, boolean bloomFilter,
+                               Path snapshotFile) {
+        this(window, sliceCount, expectedIdsPerSlice, bloomFilter, snapshotFile, System::currentTimeMillis);
+    }
+
+    DeduplicationWindow(Duration window, int sliceCount, int expectedIdsPerSlice, boolean bloomFilter,
+                        Path snapshotFile, LongSupplier clock) {
+        if (sliceCount < 1 || window.toMillis() < sliceCount) {
+            throw new IllegalArgumentException("Need at least one slice of at least 1 ms");
+        }
+        this.windowMillis = window.toMillis();
+        this.sliceMillis = windowMillis / sliceCount;
+        this.expectedIdsPerSlice = expectedIdsPerSlice;
+        this.bloomFilter = bloomFilter;
+        this.snapshotFile = snapshotFile;
+        this.clock = clock;
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            restore(snapshotFile);
+        }
+    }
+
+    // 64-bit FNV-1a of the UTF-16 code units, finished with the MurmurHash3 fmix64 mixer.
+    public static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    public synchronized boolean contains(long hash) {
+        expire(clock.getAsLong());
+        for (Slice slice : slices) {
+            if (slice.contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void add(long hash) {
+        long now = clock.getAsLong();
+        expire(now);
+        Slice current = slices.peekLast();
+        if (current == null || now >= current.start() + sliceMillis) {
+            current = newSlice(now - Math.floorMod(now, sliceMillis), expectedIdsPerSlice);
+            slices.addLast(current);
+        }
+        current.add(hash);
+    }
+
+    public synchronized int size() {
+        return slices.stream().mapToInt(slice -> slice.ids().size()).sum();
+    }
+
+    public synchronized long memoryBytes() {
+        long bytes = 0;
+        for (Slice slice : slices) {
+            bytes += slice.ids().memoryBytes() + (slice.filter() != null ? slice.filter().memoryBytes() : 0);
+        }
+        return bytes;
+    }
+
+    // Writes all live slices to the snapshot file (if one is configured) so a restarted consumer still
+    // recognizes messages it processed just before it went down.
+    @Override
+    public synchronized void close() throws IOException {
+        if (snapshotFile == null) {
+            return;
+        }
+        expire(clock.getAsLong());
+        Path parent = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, snapshotFile.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(slices.size());
+            for (Slice slice : slices) {
+                out.writeLong(slice.start());
+                out.writeInt(slice.ids().size());
+                LongHashSet ids = slice.ids();
+                IOException[] failure = new IOException[1];
+                ids.forEach(id -> {
+                    try {
+                        out.writeLong(id);
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+            }
+        }
+        Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Saved {} message IDs to {} ({} bytes in memory, {} bytes per million IDs)", size(), snapshotFile,
+                memoryBytes(), size() == 0 ? 0 : memoryBytes() * 1_000_000 / size());
+    }
+
+    private void restore(Path file) {
+        long now = clock.getAsLong();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                log.warn("Ignoring {}: not a deduplication snapshot", file);
+                return;
+            }
+            int sliceCount = in.readInt();
+            for (int i = 0; i < sliceCount; i++) {
+                long start = in.readLong();
+                int size = in.readInt();
+                Slice slice = newSlice(start, Math.max(size, expectedIdsPerSlice));
+                for (int j = 0; j < size; j++) {
+                    slice.add(in.readLong());
+                }
+                slices.addLast(slice);
+            }
+        } catch (IOException e) {
+            log.warn("Could not restore message IDs from {}, starting empty", file, e);
+            slices.clear();
+            return;
+        }
+        expire(now);
+        log.info("Restored {} message IDs from {}", size(), file);
+    }
+
+    private Slice newSlice(long start, int expectedIds) {
+        return new Slice(start, new LongHashSet(expectedIds),
+                bloomFilter ? new LongBloomFilter(expectedIds, 0.01) : null);
+    }
+
+    // A Bloom filter can't forget single entries, which is why every slice has its own: it goes with the slice.
+    private void expire(long now) {
+        while (!slices.isEmpty() && slices.peekFirst().start() + sliceMillis <= now - windowMillis) {
+            slices.removeFirst();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.sonng2k.messagingrabbitmq;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageBuilderSupport;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// Delayed retries for a queue that don't hold up its consumer: a message whose processing failed is published to
+// a delay queue and acked, so the consumer moves on to the next message right away and RabbitMQ brings the failed
+// one back later. No thread sleeps, and a poison message can't spin in a redelivery loop.
+
+// Topology for queue q on exchange x (see declarables()):
+//   q.retry-1 ... q.retry-n  durable queues whose messages expire after delay 1 ... n, with x as their
+//                            dead-letter exchange and q.retry as the dead-letter routing key
+//   q <- x on q.retry        so an expired message goes back to q, and only to q
+//   q.parking-lot            where a message ends up after failing n + 1 times, for somebody to look at
+// Delay i is initial-delay * multiplier^(i - 1). There is one queue per delay rather than one queue with a TTL per
+// message, because RabbitMQ only expires messages at the head of a queue: a long delay would hold up the shorter
+// ones queued behind it.
+//
+// The copy keeps the body and the properties of the original, message ID included, so DeduplicatingMessageListener
+// still recognizes it. It comes back with routing key q.retry, so the original partition key is pinned in the
+// PARTITION_KEY_HEADER and the routing key in ORIGINAL_ROUTING_KEY_HEADER. A retried message loses its place in
+// the order of its key: later messages with the same key are processed while it waits.
+//
+// The future retry() returns completes once the broker has confirmed that the copy is in its queue, and the caller
+// acks the original from there. No thread waits for the confirm: retry() returns as soon as the copy is sent, and
+// the future completes on the thread that handles the confirm (or, past the confirm timeout, on the JDK's delay
+// scheduler), so whatever is chained to it must not block. That takes correlated publisher confirms and publisher
+// returns on the connection factory (see messaging.properties), which also makes the template publish as
+// mandatory: a copy that can't be routed, e.g. because its tier queue was never declared, comes back instead of
+// being dropped.
+public class DelayedRetry {
+
+    public static final String RETRY_COUNT_HEADER = "x-retry-count";
+    public static final String ORIGINAL_ROUTING_KEY_HEADER = "x-original-routing-key";
+    public static final String EXCEPTION_HEADER = "x-exception";
+
+    private static final Logger log = LoggerFactory.getLogger(DelayedRetry.class);
+
+    private final RabbitOperations rabbitOperations;
+    private final String exchangeName;
+    private final String queueName;
+    private final List<Duration> delays;
+    private final Duration confirmTimeout;
+    private final List<Counter> retries = new ArrayList<>();
+    private final Counter parked;
+
+    public DelayedRetry(RabbitOperations rabbitOperations, String exchangeName, String queueName,
+                        Duration initialDelay, double multiplier, int maxRetries, Duration confirmTimeout,
+                        MeterRegistry meterRegistry) {
+        if (initialDelay.isNegative() || initialDelay.isZero() || multiplier < 1 || maxRetries < 0) {
+            throw new IllegalArgumentException("Retries need a positive initial delay, a multiplier of at least 1 and "
+                    + "a maximum number of retries that is not negative");
+        }
+        if (rabbitOperations instanceof RabbitTemplate template
+                && (!template.getConnectionFactory().isPublisherConfirms()
+                || !template.getConnectionFactory().isPublisherReturns())) {
+            throw new IllegalStateException("Delayed retries need correlated publisher confirms and publisher returns "
+                    + "(spring.rabbitmq.publisher-confirm-type=correlated, spring.rabbitmq.publisher-returns=true)");
+        }
+        this.confirmTimeout = confirmTimeout;
+        this.rabbitOperations = rabbitOperations;
+        this.exchangeName = exchangeName;
+        this.queueName = queueName;
+        List<Duration> delays = new ArrayList<>();
+        for (int tier = 1; tier <= maxRetries; tier++) {
+            delays.add(Duration.ofMillis(Math.round(initialDelay.toMillis() * Math.pow(multiplier, tier - 1))));
+            retries.add(Counter.builder("messaging.retries")
+                    .description("Failed messages sent to a delayed retry")
+                    .tag("queue", queueName)
+                    .tag("tier", String.valueOf(tier))
+                    .register(meterRegistry));
+        }
+        this.delays = List.copyOf(delays);
+        this.parked = Counter.builder("messaging.parked")
+                .description("Messages that failed every retry and went to the parking lot")
+                .tag("queue", queueName)
+                .register(meterRegistry);
+    }
+
+    public List<Duration> delays() {
+        return delays;
+    }
+
+    public String tierQueueName(int tier) {
+        return queueName + ".retry-" + tier;
+    }
+
+    public String parkingLotQueueName() {
+        return queueName + ".parking-lot";
+    }
+
+    public String retryRoutingKey() {
+        return queueName + ".retry";
+    }
+
+    public Declarables declarables() {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int tier = 1; tier <= delays.size(); tier++) {
+            declarables.add(QueueBuilder.durable(tierQueueName(tier))
+                    .ttl(Math.toIntExact(delays.get(tier - 1).toMillis()))
+                    .deadLetterExchange(exchangeName)
+                    .deadLetterRoutingKey(retryRoutingKey())
+                    .build());
+        }
+        declarables.add(new Binding(queueName, Binding.DestinationType.QUEUE, exchangeName, retryRoutingKey(), null));
+        declarables.add(QueueBuilder.durable(parkingLotQueueName()).build());
+        return new Declarables(declarables);
+    }
+
+    // Publishes the failed message to its next delay queue, or to the parking lot once it has been through all of
+    // them. The future completes when the broker has confirmed the copy, or fails with an AmqpException if it
+    // couldn't be published, was refused or returned, or wasn't confirmed within the confirm timeout; the caller
+    // must then keep the original.
+    public CompletableFuture<Void> retry(Message message, Throwable cause) {
+        int retry = retryCount(message) + 1;
+        MessageBuilderSupport<Message> copy = MessageBuilder.fromClonedMessage(message)
+                .setHeader(RETRY_COUNT_HEADER, retry)
+                .setHeader(KeyPartitionedMessageListener.PARTITION_KEY_HEADER,
+                        KeyPartitionedMessageListener.partitionKey(message))
+                // A received message carries its mode in receivedDeliveryMode; without this, the copy is transient.
+                .setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+        if (message.getMessageProperties().getHeader(ORIGINAL_ROUTING_KEY_HEADER) == null) {
+            copy.setHeader(ORIGINAL_ROUTING_KEY_HEADER, message.getMessageProperties().getReceivedRoutingKey());
+        }
+        String messageId = message.getMessageProperties().getMessageId();
+        if (retry <= delays.size()) {
+            Counter tierRetries = retries.get(retry - 1);
+            Duration delay = delays.get(retry - 1);
+            return publish(tierQueueName(retry), copy.build()).thenRun(() -> {
+                tierRetries.increment();
+                log.debug("Retrying message {} in {}", messageId, delay);
+            });
+        }
+        copy.setHeader(EXCEPTION_HEADER, String.valueOf(cause));
+        return publish(parkingLotQueueName(), copy.build()).thenRun(() -> {
+            parked.increment();
+            log.warn("Message {} failed {} times, parked it in {}", messageId, retry, parkingLotQueueName(), cause);
+        });
+    }
+
+    private CompletableFuture<Void> publish(String queue, Message copy) {
+        CorrelationData correlation = new CorrelationData();
+        try {
+            rabbitOperations.send("", queue, copy, correlation);
+        } catch (AmqpException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return correlation.getFuture()
+                .orTimeout(confirmTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .handle((confirm, failure) -> {
+                    if (failure != null) {
+                        throw new AmqpException("The broker did not confirm a message sent to " + queue + " in time",
+                                failure);
+                    }
+                    if (!confirm.isAck()) {
+                        throw new AmqpException("The broker refused a message sent to " + queue + ": "
+                                + confirm.getReason());
+                    }
+                    // A returned message is confirmed all the same; the return arrives before the confirm.
+                    ReturnedMessage returned = correlation.getReturned();
+                    if (returned != null) {
+                        throw new AmqpException("A message sent to " + queue + " could not be routed: "
+                                + returned.getReplyText());
+                    }
+                    return null;
+                });
+    }
+
+    private static int retryCount(Message message) {
+        Object header = message.getMessageProperties().getHeader(RETRY_COUNT_HEADER);
+        return header instanceof Number count ? count.intValue() : 0;
+    }
+}
@@ -0,0 +1,5 @@
+package com.sonng2k.messagingrabbitmq;
+
+// The typed counterpart of the `Hello from RabbitMQ!` String, sent with RecordMessageConverter's binary layout.
+public record HelloMessage(long sequence, String text) {
+}
@@ -0,0 +1,107 @@
+package com.sonng2k.messagingrabbitmq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Runs tasks on a fixed set of single-threaded lanes, choosing the lane by hashing a key.
+
+// Tasks with the same key always land on the same lane, so they run one at a time and in the order they were
+// dispatched. Tasks with different keys usually land on different lanes and run in parallel. Each lane has a
+// bounded queue: when it is full, dispatch() blocks the caller until the lane catches up. Behind a listener
+// container, that caller is the consumer thread, so a slow lane pauses consumption instead of buffering
+// messages without limit.
+public class KeyPartitionedDispatcher implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(KeyPartitionedDispatcher.class);
+
+    private static final Runnable STOP = () -> {
+    };
+
+    private final BlockingQueue<Runnable>[] queues;
+    private final Thread[] workers;
+    private final int laneCapacity;
+    private volatile boolean closed;
+
+    @SuppressWarnings("unchecked")
+    public KeyPartitionedDispatcher(String name, int lanes, int laneCapacity) {
+        if (lanes < 1 || laneCapacity < 1) {
+            throw new IllegalArgumentException("lanes and laneCapacity must be positive");
+        }
+        this.laneCapacity = laneCapacity;
+        this.queues = new BlockingQueue[lanes];
+        this.workers = new Thread[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(laneCapacity);
+            queues[lane] = queue;
+            workers[lane] = new Thread(() -> work(queue), name + "-lane-" + lane);
+            workers[lane].start();
+        }
+    }
+
+    public int laneFor(String key) {
+        int hash = key != null ? key.hashCode() : 0;
+        return Math.floorMod(hash ^ (hash >>> 16), queues.length);
+    }
+
+    public void dispatch(String key, Runnable task) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Dispatcher is closed");
+        }
+        queues[laneFor(key)].put(task);
+    }
+
+    // The most tasks that can be waiting at once. Use it as the consumer prefetch so the broker never hands
+    // us more unacknowledged messages than the lanes can hold.
+    public int capacity() {
+        return queues.length * laneCapacity;
+    }
+
+    public int queued() {
+        int queued = 0;
+        for (BlockingQueue<Runnable> queue : queues) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+
+    // Lets every lane finish the tasks already queued, then stops the worker threads.
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        for (BlockingQueue<Runnable> queue : queues) {
+            queue.put(STOP);
+        }
+        for (Thread worker : workers) {
+            worker.join(TimeUnit.SECONDS.toMillis(30));
+            if (worker.isAlive()) {
+                log.warn("{} did not finish its queued tasks in time", worker.getName());
+                worker.interrupt();
+            }
+        }
+    }
+
+    private static void work(BlockingQueue<Runnable> queue) {
+        while (true) {
+            Runnable task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == STOP) {
+                return;
+            }
+            // Errors too (an AssertionError or a StackOverflowError in a listener): a dead lane would never run
+            // its queued tasks again, and dispatch() would block forever once its queue is full.
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("Task failed on {}", Thread.currentThread().getName(), e);
+            }
+        }
+    }
+}
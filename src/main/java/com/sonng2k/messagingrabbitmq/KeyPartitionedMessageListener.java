@@ -0,0 +1,90 @@
+package com.sonng2k.messagingrabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+
+import java.io.IOException;
+
+// Sits between the listener container and the Receiver and hands every message to a KeyPartitionedDispatcher
+// lane, so messages about different entities are processed in parallel while messages about the same entity
+// keep their order.
+
+// The key is the PARTITION_KEY_HEADER if the sender set one, otherwise the routing key the message arrived with
+// (e.g. `foo.bar.baz`). The container must run with AcknowledgeMode.MANUAL and a single consumer: a message is
+// only acked once its lane has processed it, and a second consumer would race the first one for messages of
+// the same key.
+//
+// A message that fails is handed to DelayedRetry, and acked once the broker has confirmed the retry copy, so it
+// comes back after a delay instead of right away. If the copy isn't confirmed, the original is nacked and
+// requeued instead, so it is never lost (at worst it is processed once more). The lane doesn't wait for the
+// confirm: the original is settled from the confirm callback, and the lane goes on with its next message.
+public class KeyPartitionedMessageListener implements ChannelAwareMessageListener {
+
+    public static final String PARTITION_KEY_HEADER = "x-partition-key";
+
+    private static final Logger log = LoggerFactory.getLogger(KeyPartitionedMessageListener.class);
+
+    private final KeyPartitionedDispatcher dispatcher;
+    private final ChannelAwareMessageListener delegate;
+    private final DelayedRetry retry;
+
+    public KeyPartitionedMessageListener(KeyPartitionedDispatcher dispatcher, ChannelAwareMessageListener delegate,
+                                         DelayedRetry retry) {
+        this.dispatcher = dispatcher;
+        this.delegate = delegate;
+        this.retry = retry;
+    }
+
+    public static String partitionKey(Message message) {
+        Object header = message.getMessageProperties().getHeader(PARTITION_KEY_HEADER);
+        return header != null ? header.toString() : message.getMessageProperties().getReceivedRoutingKey();
+    }
+
+    @Override
+    public void onMessage(Message message, Channel channel) throws Exception {
+        // Blocks while the lane is full, which keeps this consumer from taking more messages.
+        dispatcher.dispatch(partitionKey(message), () -> process(message, channel));
+    }
+
+    private void process(Message message, Channel channel) {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        try {
+            delegate.onMessage(message, channel);
+        } catch (Exception | Error e) {
+            // An Error from the Receiver is retried like any failure; otherwise the delivery would stay unacked.
+            log.warn("Processing delivery {} failed, retrying it later", deliveryTag, e);
+            retry(message, channel, e);
+            return;
+        }
+        settle(channel, deliveryTag, true);
+    }
+
+    private void retry(Message message, Channel channel, Throwable cause) {
+        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        retry.retry(message, cause).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                log.warn("Could not send delivery {} to a retry queue, requeueing it", deliveryTag, failure);
+            }
+            settle(channel, deliveryTag, failure == null);
+        });
+    }
+
+    // Lanes and confirms finish out of order, so every delivery is settled on its own (multiple = false). Acks and
+    // nacks don't wait for the broker, so this is safe to call from a confirm callback.
+    private static void settle(Channel channel, long deliveryTag, boolean ack) {
+        try {
+            if (ack) {
+                channel.basicAck(deliveryTag, false);
+            } else {
+                channel.basicNack(deliveryTag, false, true);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The channel went away (e.g. the consumer restarted). The broker redelivers everything that was not
+            // acked on it, so the message is not lost.
+            log.warn("Could not {} delivery {}", ack ? "ack" : "nack", deliveryTag, e);
+        }
+    }
+}
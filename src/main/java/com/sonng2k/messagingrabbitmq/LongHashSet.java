@@ -0,0 +1,98 @@
+package com.sonng2k.messagingrabbitmq;
+
+import java.util.function.LongConsumer;
+
+// A set of primitive longs with open addressing and linear probing. Each entry is a single 8-byte slot, with no
+// boxing and no per-entry node, which is what keeps DeduplicationWindow small.
+final class LongHashSet {
+
+    private static final float MAX_LOAD = 0.75f;
+
+    // 0 marks an empty slot, so the value 0 itself is tracked separately.
+    private long[] slots;
+    private boolean containsZero;
+    private int size;
+
+    LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+        this.slots = new long[capacity];
+    }
+
+    boolean add(long value) {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int mask = slots.length - 1;
+        for (int i = index(value, mask); ; i = (i + 1) & mask) {
+            if (slots[i] == value) {
+                return false;
+            }
+            if (slots[i] == 0) {
+                slots[i] = value;
+                if (++size > slots.length * MAX_LOAD) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int mask = slots.length - 1;
+        for (int i = index(value, mask); ; i = (i + 1) & mask) {
+            if (slots[i] == value) {
+                return true;
+            }
+            if (slots[i] == 0) {
+                return false;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long memoryBytes() {
+        return 16L + 8L * slots.length;
+    }
+
+    void forEach(LongConsumer action) {
+        if (containsZero) {
+            action.accept(0);
+        }
+        for (long slot : slots) {
+            if (slot != 0) {
+                action.accept(slot);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        int mask = slots.length - 1;
+        for (long value : old) {
+            if (value != 0) {
+                int i = index(value, mask);
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = value;
+            }
+        }
+    }
+
+    private static int index(long value, int mask) {
+        // The values are already well-mixed hashes; fold the high bits in so the low bits used as index see them.
+        return (int) (value ^ (value >>> 32)) & mask;
+    }
+}
@@ -1,15 +1,28 @@
 package com.sonng2k.messagingrabbitmq;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.adapter.MessageListenerAdapter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.file.Path;
+import java.time.Duration;
 
 // Register the Listener and Send a Message...
 
@@ -30,13 +43,18 @@ import org.springframework.context.annotation.Bean;
 // Instead, a message is sent to an exchange, which can go to a single queue or fan out to multiple queues,
 // emulating the concept of JMS topics.
 
+// messaging.properties holds the RabbitMQ settings only this application needs, so they don't leak into the
+// other applications.
 @SpringBootApplication
+@PropertySource("classpath:messaging.properties")
 public class MessagingRabbitmqApplication {
 
     static final String topicExchangeName = "spring-boot-exchange";
 
     static final String queueName = "spring-boot";
 
+    static final String cardTransactionQueueName = "cash-card-transactions";
+
     // The main() method starts the process by creating a Spring application context. This starts the
     // message listener container, which starts listening for messages. There is a Runner bean, which is then
     // automatically run. It retrieves the RabbitTemplate from the application context and sends a `Hello from
@@ -70,25 +88,139 @@ public class MessagingRabbitmqApplication {
         return BindingBuilder.bind(queue).to(exchange).with("foo.bar.#");
     }
 
+    // Card transactions move money, so their queue is durable and survives a broker restart.
+    @Bean
+    Queue cardTransactionQueue() {
+        return new Queue(cardTransactionQueueName, true);
+    }
+
+    @Bean
+    Binding cardTransactionBinding(Queue cardTransactionQueue, TopicExchange exchange) {
+        return BindingBuilder.bind(cardTransactionQueue).to(exchange).with("cashcard.transaction.#");
+    }
+
     // The message listener container and receiver beans are all you need to listen for messages. To send a
     // message, you also need a Rabbit template.
+
+    // Raising the container's concurrency would let two consumers process messages about the same entity at
+    // the same time, in any order. Instead, one consumer hands messages to KeyPartitionedMessageListener, which
+    // spreads them over single-threaded lanes by key and acks each one after its lane has processed it. The
+    // prefetch matches what the lanes can queue, so the broker stops sending when the lanes are full.
     @Bean
     SimpleMessageListenerContainer container(ConnectionFactory connectionFactory,
-                                             MessageListenerAdapter listenerAdapter) {
+                                             KeyPartitionedDispatcher receiverDispatcher,
+                                             KeyPartitionedMessageListener partitionedListener) {
         SimpleMessageListenerContainer container = new SimpleMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
         container.setQueueNames(queueName);
-        container.setMessageListener(listenerAdapter);
+        container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        container.setPrefetchCount(receiverDispatcher.capacity());
+        container.setMessageListener(partitionedListener);
+        return container;
+    }
+
+    // Card transactions are consumed in batches of up to batch-size messages (a batch is also cut short when no
+    // message arrives for receive-timeout). Bigger batches mean fewer database transactions per message; see
+    // CardTransactionBatchBenchmark. The prefetch lets the next batch arrive while the current one commits.
+    @Bean
+    SimpleMessageListenerContainer cardTransactionContainer(
+            ConnectionFactory connectionFactory,
+            CardTransactionBatchListener cardTransactionListener,
+            @Value("${messaging.card-transactions.batch-size:100}") int batchSize,
+            @Value("${messaging.card-transactions.receive-timeout:PT0.1S}") Duration receiveTimeout) {
+        SimpleMessageListenerContainer container = new SimpleMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setQueueNames(cardTransactionQueueName);
+        container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        container.setConsumerBatchEnabled(true);
+        container.setBatchSize(batchSize);
+        container.setPrefetchCount(2 * batchSize);
+        container.setReceiveTimeout(receiveTimeout.toMillis());
+        container.setMessageListener(cardTransactionListener);
         return container;
     }
 
+    @Bean
+    CardTransactionBatchListener cardTransactionListener(MessageConverter messageConverter, JdbcTemplate jdbcTemplate,
+                                                         PlatformTransactionManager transactionManager) {
+        return new CardTransactionBatchListener(messageConverter, jdbcTemplate, transactionManager);
+    }
+
+    // Closed after the container has stopped, so messages already handed to a lane are still processed. If the
+    // container's channel is gone by the time a lane acks, the broker redelivers the message. It is closed
+    // before the deduplicationWindow, so the snapshot includes the last messages the lanes processed.
+    @Bean
+    @DependsOn("deduplicationWindow")
+    KeyPartitionedDispatcher receiverDispatcher(@Value("${messaging.receiver.lanes:4}") int lanes,
+                                                @Value("${messaging.receiver.lane-capacity:64}") int laneCapacity) {
+        return new KeyPartitionedDispatcher("receiver", lanes, laneCapacity);
+    }
+
+    @Bean
+    KeyPartitionedMessageListener partitionedListener(KeyPartitionedDispatcher receiverDispatcher,
+                                                      DeduplicatingMessageListener deduplicatingListener,
+                                                      DelayedRetry receiverRetry) {
+        return new KeyPartitionedMessageListener(receiverDispatcher, deduplicatingListener, receiverRetry);
+    }
+
+    // A message the Receiver fails on comes back after 1s, 4s and 16s by default, and then goes to the
+    // spring-boot.parking-lot queue. The messaging.retries and messaging.parked counters show how often. A failed
+    // message is only acked once the broker confirmed its copy within messaging.retry.confirm-timeout.
+    @Bean
+    DelayedRetry receiverRetry(RabbitTemplate rabbitTemplate, MeterRegistry meterRegistry,
+                               @Value("${messaging.retry.initial-delay:PT1S}") Duration initialDelay,
+                               @Value("${messaging.retry.multiplier:4}") double multiplier,
+                               @Value("${messaging.retry.max-retries:3}") int maxRetries,
+                               @Value("${messaging.retry.confirm-timeout:PT5S}") Duration confirmTimeout) {
+        return new DelayedRetry(rabbitTemplate, topicExchangeName, queueName, initialDelay, multiplier, maxRetries,
+                confirmTimeout, meterRegistry);
+    }
+
+    @Bean
+    Declarables receiverRetryTopology(DelayedRetry receiverRetry) {
+        return receiverRetry.declarables();
+    }
+
+    // RabbitMQ redelivers unacked messages when a consumer restarts, so the Receiver only sees a message ID once
+    // per messaging.dedup.window. Set messaging.dedup.snapshot-file to keep the seen IDs across restarts.
+    @Bean
+    DeduplicatingMessageListener deduplicatingListener(DeduplicationWindow deduplicationWindow,
+                                                       MessageListenerAdapter listenerAdapter) {
+        return new DeduplicatingMessageListener(deduplicationWindow, listenerAdapter);
+    }
+
+    @Bean
+    DeduplicationWindow deduplicationWindow(@Value("${messaging.dedup.window:PT10M}") Duration window,
+                                            @Value("${messaging.dedup.slices:10}") int slices,
+                                            @Value("${messaging.dedup.expected-ids-per-slice:100000}") int expectedIds,
+                                            @Value("${messaging.dedup.bloom-filter:true}") boolean bloomFilter,
+                                            @Value("${messaging.dedup.snapshot-file:}") String snapshotFile) {
+        return new DeduplicationWindow(window, slices, expectedIds, bloomFilter,
+                snapshotFile.isBlank() ? null : Path.of(snapshotFile));
+    }
+
     // The bean defined in the listenerAdapter() method is registered as a message listener in the container
     // (defined in container()). It listens for messages on the `spring-boot` queue. Because the Receiver class
     // is a POJO, it needs to be wrapped in the MessageListenerAdapter, where you specify that it invokes
     // `receiveMessage`.
     @Bean
-    MessageListenerAdapter listenerAdapter(Receiver receiver) {
-        return new MessageListenerAdapter(receiver, "receiveMessage");
+    MessageListenerAdapter listenerAdapter(Receiver receiver, MessageConverter messageConverter) {
+        MessageListenerAdapter listenerAdapter = new MessageListenerAdapter(receiver, "receiveMessage");
+        listenerAdapter.setMessageConverter(messageConverter);
+        return listenerAdapter;
+    }
+
+    // Spring Boot hands a MessageConverter bean to the auto-configured RabbitTemplate, so senders and the
+    // listener agree on the format. Registered records travel in a compact binary layout; everything else,
+    // like the String the Runner sends, still goes through the default SimpleMessageConverter. Every message
+    // sent gets a message ID, which is what DeduplicatingMessageListener recognizes redeliveries by.
+    @Bean
+    MessageConverter messageConverter() {
+        RecordMessageConverter converter = new RecordMessageConverter()
+                .register(1, HelloMessage.class)
+                .register(2, CardTransaction.class);
+        converter.setCreateMessageIds(true);
+        return converter;
     }
 
 }
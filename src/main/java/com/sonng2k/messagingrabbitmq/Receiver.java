@@ -10,19 +10,26 @@ import java.util.concurrent.CountDownLatch;
 // The Receiver is a POJO that defines a method for receiving messages. When you register it to receive
 // messages, you can name it anything you want.
 
-// For convenience, this POJO also has a CountDownLatch. This lets it signal that the message has been
-// received. This is something you are not likely to implement in a production application.
+// For convenience, this POJO also has a CountDownLatch. This lets it signal that the messages have been
+// received: Runner sends two, the plain greeting and the typed HelloMessage, and waits for both. This is
+// something you are not likely to implement in a production application.
 
 @Component
 public class Receiver {
 
-    private final CountDownLatch latch = new CountDownLatch(1);
+    private final CountDownLatch latch = new CountDownLatch(2);
 
     public void receiveMessage(String message) {
         System.out.println("Received <" + message + ">");
         latch.countDown();
     }
 
+    // MessageListenerAdapter picks the receiveMessage overload that matches the converted payload.
+    public void receiveMessage(HelloMessage message) {
+        System.out.println("Received <" + message.text() + "> #" + message.sequence());
+        latch.countDown();
+    }
+
     public CountDownLatch getLatch() {
         return latch;
     }
@@ -0,0 +1,170 @@
+package com.sonng2k.messagingrabbitmq;
+
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.RecordComponent;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// Encodes one record type to the compact binary layout of RecordMessageConverter, and back.
+
+// The record's components, in declaration order, are the schema. Each component is written as:
+// - long/int/short/byte/double/float/boolean/char: fixed width, big-endian
+// - String and byte[]: varint length followed by the UTF-8 bytes / raw bytes
+// - boxed primitives, String and byte[] can be null, so they get a one-byte presence flag first
+// Adding, removing or reordering components changes the layout, so do that under a new type id.
+final class RecordCodec<T extends Record> {
+
+    private final Class<T> type;
+    private final int typeId;
+    private final Field[] fields;
+    // Both adapted to Object signatures up front so each call is a cheap invokeExact.
+    private final MethodHandle[] accessors;
+    private final MethodHandle constructor;
+
+    RecordCodec(int typeId, Class<T> type) {
+        if (!type.isRecord()) {
+            throw new IllegalArgumentException(type.getName() + " is not a record");
+        }
+        this.type = type;
+        this.typeId = typeId;
+        RecordComponent[] components = type.getRecordComponents();
+        this.fields = new Field[components.length];
+        this.accessors = new MethodHandle[components.length];
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            for (int i = 0; i < components.length; i++) {
+                fields[i] = Field.of(components[i].getType(), type);
+                components[i].getAccessor().setAccessible(true);
+                accessors[i] = lookup.unreflect(components[i].getAccessor())
+                        .asType(MethodType.methodType(Object.class, Object.class));
+            }
+            Constructor<T> canonical = type.getDeclaredConstructor(Arrays.stream(components)
+                    .map(RecordComponent::getType)
+                    .toArray(Class<?>[]::new));
+            canonical.setAccessible(true);
+            this.constructor = lookup.unreflectConstructor(canonical)
+                    .asSpreader(Object[].class, components.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Cannot access the components of " + type.getName(), e);
+        }
+    }
+
+    Class<T> type() {
+        return type;
+    }
+
+    int typeId() {
+        return typeId;
+    }
+
+    byte[] encode(T record) {
+        BinaryWriter writer = new BinaryWriter(8 * fields.length + 8);
+        writer.writeVarint(typeId);
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i].write(writer, (Object) accessors[i].invokeExact((Object) record));
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new MessageConversionException("Cannot encode " + type.getName(), e);
+        }
+        return writer.toByteArray();
+    }
+
+    // The reader is positioned right after the type id.
+    T decode(BinaryReader reader) {
+        Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = fields[i].read(reader);
+        }
+        if (reader.hasRemaining()) {
+            throw new MessageConversionException("Trailing bytes after " + type.getName());
+        }
+        try {
+            return type.cast((Object) constructor.invokeExact(values));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new MessageConversionException("Cannot decode " + type.getName(), e);
+        }
+    }
+
+    private static final Map<Class<?>, Field> PRIMITIVES = Map.of(
+            long.class, Field.of((writer, value) -> writer.writeLong((Long) value), BinaryReader::readLong),
+            int.class, Field.of((writer, value) -> writer.writeInt((Integer) value), BinaryReader::readInt),
+            short.class, Field.of((writer, value) -> writer.writeShort((Short) value), BinaryReader::readShort),
+            byte.class, Field.of((writer, value) -> writer.writeByte((Byte) value), BinaryReader::readByte),
+            double.class, Field.of((writer, value) -> writer.writeLong(Double.doubleToRawLongBits((Double) value)),
+                    reader -> Double.longBitsToDouble(reader.readLong())),
+            float.class, Field.of((writer, value) -> writer.writeInt(Float.floatToRawIntBits((Float) value)),
+                    reader -> Float.intBitsToFloat(reader.readInt())),
+            boolean.class, Field.of((writer, value) -> writer.writeByte((Boolean) value ? 1 : 0),
+                    reader -> reader.readByte() != 0),
+            char.class, Field.of((writer, value) -> writer.writeShort((short) ((Character) value).charValue()),
+                    reader -> (char) reader.readShort()));
+
+    private static final Map<Class<?>, Field> REFERENCES = Map.of(
+            Long.class, PRIMITIVES.get(long.class).nullable(),
+            Integer.class, PRIMITIVES.get(int.class).nullable(),
+            Short.class, PRIMITIVES.get(short.class).nullable(),
+            Byte.class, PRIMITIVES.get(byte.class).nullable(),
+            Double.class, PRIMITIVES.get(double.class).nullable(),
+            Float.class, PRIMITIVES.get(float.class).nullable(),
+            Boolean.class, PRIMITIVES.get(boolean.class).nullable(),
+            Character.class, PRIMITIVES.get(char.class).nullable(),
+            String.class, Field.of((writer, value) -> writer.writeString((String) value),
+                    BinaryReader::readString).nullable(),
+            byte[].class, Field.of((writer, value) -> writer.writeBytes((byte[]) value),
+                    BinaryReader::readBytes).nullable());
+
+    private interface Field {
+
+        void write(BinaryWriter writer, Object value);
+
+        Object read(BinaryReader reader);
+
+        static Field of(BiConsumer<BinaryWriter, Object> write, Function<BinaryReader, Object> read) {
+            return new Field() {
+                @Override
+                public void write(BinaryWriter writer, Object value) {
+                    write.accept(writer, value);
+                }
+
+                @Override
+                public Object read(BinaryReader reader) {
+                    return read.apply(reader);
+                }
+            };
+        }
+
+        static Field of(Class<?> componentType, Class<?> recordType) {
+            Field field = componentType.isPrimitive() ? PRIMITIVES.get(componentType) : REFERENCES.get(componentType);
+            if (field == null) {
+                throw new IllegalArgumentException("Unsupported component type " + componentType.getName()
+                        + " in " + recordType.getName());
+            }
+            return field;
+        }
+
+        default Field nullable() {
+            Field nonNull = this;
+            return of((writer, value) -> {
+                if (value == null) {
+                    writer.writeByte(0);
+                } else {
+                    writer.writeByte(1);
+                    nonNull.write(writer, value);
+                }
+            }, reader -> reader.readByte() == 0 ? null : nonNull.read(reader));
+        }
+    }
+}
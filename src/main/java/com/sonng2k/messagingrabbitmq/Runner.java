@@ -23,11 +23,13 @@ public class Runner implements CommandLineRunner {
     }
 
     // Notice that the template routes the message to the exchange with a routing key of `foo.bar.baz`, which
-    // matches the binding.
+    // matches the binding. The second message is the same greeting as a typed record.
     @Override
     public void run(String... args) throws Exception {
         System.out.println("Sending message...");
         rabbitTemplate.convertAndSend(MessagingRabbitmqApplication.topicExchangeName, "foo.bar.baz", "Hello from RabbitMQ!");
+        rabbitTemplate.convertAndSend(MessagingRabbitmqApplication.topicExchangeName, "foo.bar.baz",
+                new HelloMessage(1, "Hello from RabbitMQ!"));
         receiver.getLatch().await(10000, TimeUnit.MILLISECONDS);
     }
 
@@ -0,0 +1,207 @@
+package com.sonng2k;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.ClassUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+// Query-plan regression harness for Spring Data repositories running against H2.
+
+// Import it into a @DataJdbcTest or @DataJpaTest with @Import(QueryPlanInspector.class). It wraps the
+// DataSource so that every SELECT the repository sends (and its bound parameters) is recorded. Then
+// assertNoWholeTableQueries() calls each query method declared on the repository interface, runs EXPLAIN for
+// every SELECT it produced, and fails when H2 plans to scan the whole table or to sort all of its rows.
+public class QueryPlanInspector implements BeanPostProcessor {
+
+    // H2 prints the access path as a comment after the table name:
+    //   /* PUBLIC.CASH_CARD.tableScan */                      -> reads every row
+    //   /* PUBLIC.CASH_CARD_OWNER_AMOUNT_IDX: OWNER = ?1 */   -> index range lookup
+    //   /* index sorted */                                   -> ORDER BY satisfied by the index
+    private static final Pattern INDEX_CONDITION = Pattern.compile("/\\*\\s*[^*]+?:\\s");
+
+    public record RecordedStatement(String sql, Map<Integer, Object> parameters) {
+    }
+
+    private final List<RecordedStatement> statements = new CopyOnWriteArrayList<>();
+
+    private DataSource target;
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource && target == null) {
+            target = dataSource;
+            return proxy(dataSource, ClassUtils.getAllInterfaces(dataSource), (proxy, method, args) -> {
+                Object result = invoke(dataSource, method, args);
+                return result instanceof Connection connection ? recording(connection) : result;
+            });
+        }
+        return bean;
+    }
+
+    // Calls every query method declared directly on repositoryInterface once for each combination of the sample
+    // arguments (keyed by parameter type), and checks the plan of every SELECT it sends.
+    public void assertNoWholeTableQueries(Class<?> repositoryInterface, Object repository,
+                                          Map<Class<?>, List<?>> sampleArguments, Set<String> intentionalScans) {
+        Method[] methods = repositoryInterface.getDeclaredMethods();
+        Arrays.sort(methods, Comparator.comparing(Method::getName));
+        assertThat(methods).as("query methods on %s", repositoryInterface.getSimpleName()).isNotEmpty();
+        for (Method method : methods) {
+            if (method.isDefault() || intentionalScans.contains(method.getName())) {
+                continue;
+            }
+            for (Object[] args : argumentCombinations(method, sampleArguments)) {
+                for (RecordedStatement statement : capture(() -> call(repository, method, args))) {
+                    assertIndexedPlan(method.getName() + Arrays.toString(args), statement);
+                }
+            }
+        }
+    }
+
+    public List<RecordedStatement> capture(Runnable action) {
+        statements.clear();
+        action.run();
+        return statements.stream()
+                .filter(statement -> statement.sql().stripLeading().toUpperCase(Locale.ROOT).startsWith("SELECT"))
+                .toList();
+    }
+
+    public String explain(RecordedStatement statement) {
+        try (Connection connection = target.getConnection();
+             PreparedStatement explain = connection.prepareStatement("EXPLAIN " + statement.sql())) {
+            for (Map.Entry<Integer, Object> parameter : statement.parameters().entrySet()) {
+                explain.setObject(parameter.getKey(), parameter.getValue());
+            }
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet resultSet = explain.executeQuery()) {
+                while (resultSet.next()) {
+                    plan.append(resultSet.getString(1)).append('\n');
+                }
+            }
+            return plan.toString();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not EXPLAIN " + statement.sql(), e);
+        }
+    }
+
+    private void assertIndexedPlan(String call, RecordedStatement statement) {
+        String plan = explain(statement);
+        if (plan.contains("tableScan")) {
+            fail("%s scans the whole table:%n%s", call, plan);
+        }
+        boolean sorted = statement.sql().toUpperCase(Locale.ROOT).contains("ORDER BY");
+        if (sorted && !plan.contains("index sorted") && !INDEX_CONDITION.matcher(plan).find()) {
+            fail("%s sorts the whole table:%n%s", call, plan);
+        }
+    }
+
+    private static List<Object[]> argumentCombinations(Method method, Map<Class<?>, List<?>> sampleArguments) {
+        List<Object[]> combinations = new ArrayList<>();
+        combinations.add(new Object[0]);
+        for (Parameter parameter : method.getParameters()) {
+            List<?> samples = samplesFor(parameter.getType(), sampleArguments);
+            if (samples == null) {
+                fail("No sample argument of type %s for %s", parameter.getType().getName(), method);
+            }
+            List<Object[]> next = new ArrayList<>();
+            for (Object[] prefix : combinations) {
+                for (Object sample : samples) {
+                    Object[] args = Arrays.copyOf(prefix, prefix.length + 1);
+                    args[prefix.length] = sample;
+                    next.add(args);
+                }
+            }
+            combinations = next;
+        }
+        return combinations;
+    }
+
+    private static List<?> samplesFor(Class<?> type, Map<Class<?>, List<?>> sampleArguments) {
+        List<?> exact = sampleArguments.get(ClassUtils.resolvePrimitiveIfNecessary(type));
+        if (exact != null) {
+            return exact;
+        }
+        return sampleArguments.entrySet().stream()
+                .filter(entry -> type.isAssignableFrom(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse(null);
+    }
+
+    private static void call(Object repository, Method method, Object[] args) {
+        try {
+            Object result = method.invoke(repository, args);
+            // Streams are lazy: drain them so the query actually runs, and close them to release the cursor.
+            if (result instanceof Stream<?> stream) {
+                try (stream) {
+                    stream.forEach(row -> {
+                    });
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Calling " + method + " failed", e.getCause());
+        }
+    }
+
+    private Connection recording(Connection connection) {
+        return proxy(connection, new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            Object result = invoke(connection, method, args);
+            if (result instanceof PreparedStatement statement && args != null && args[0] instanceof String sql) {
+                return recording(statement, sql);
+            }
+            return result;
+        });
+    }
+
+    private PreparedStatement recording(PreparedStatement statement, String sql) {
+        Map<Integer, Object> parameters = new TreeMap<>();
+        return proxy(statement, new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                parameters.put(index, name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.startsWith("execute")) {
+                statements.add(new RecordedStatement(sql, new TreeMap<>(parameters)));
+            }
+            return invoke(statement, method, args);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(T target, Class<?>[] interfaces, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(QueryPlanInspector.class.getClassLoader(), interfaces, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
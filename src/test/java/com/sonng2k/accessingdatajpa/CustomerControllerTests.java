@@ -0,0 +1,78 @@
+package com.sonng2k.accessingdatajpa;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Runs against a real server so the streamed body goes through the servlet container's async dispatch, the way a
+// client gets it. The customers are the five AccessingDataJpaApplication's demo runner saves at startup.
+//
+// Spring Security is on the classpath and this application defines no SecurityFilterChain of its own, so Spring
+// Boot's default one asks for HTTP Basic authentication on every request. The properties fix the credentials of
+// its single user, which are otherwise generated at startup.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.security.user.name=jack",
+        "spring.security.user.password=ctu24"})
+class CustomerControllerTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    void refusesAnAnonymousRequest() {
+        ResponseEntity<String> response = restTemplate.getForEntity("/customers", String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    void streamsEveryCustomerAsAJsonArray() {
+        ResponseEntity<String> response = asJack().getForEntity("/customers", String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_JSON);
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        List<String> firstNames = documentContext.read("$[*].firstName");
+        assertThat(firstNames).containsExactly("Jack", "Chloe", "Kim", "David", "Michelle");
+        List<String> lastNames = documentContext.read("$[*].lastName");
+        assertThat(lastNames).containsExactly("Bauer", "O'Brian", "Bauer", "Palmer", "Dessler");
+        List<Number> ids = documentContext.read("$[*].id");
+        assertThat(ids).doesNotContainNull().doesNotHaveDuplicates();
+    }
+
+    @Test
+    void streamsOnlyTheCustomersWithTheGivenLastName() {
+        ResponseEntity<String> response = asJack().getForEntity("/customers?lastName={lastName}", String.class,
+                "Bauer");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        List<String> lastNames = documentContext.read("$[*].lastName");
+        assertThat(lastNames).containsExactly("Bauer", "Bauer");
+        List<String> firstNames = documentContext.read("$[*].firstName");
+        assertThat(firstNames).containsExactlyInAnyOrder("Jack", "Kim");
+    }
+
+    @Test
+    void streamsAnEmptyArrayWhenNoCustomerHasTheLastName() {
+        ResponseEntity<String> response = asJack().getForEntity("/customers?lastName={lastName}", String.class,
+                "Almeida");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).isEqualTo("[]");
+    }
+
+    private TestRestTemplate asJack() {
+        return restTemplate.withBasicAuth("jack", "ctu24");
+    }
+}
@@ -0,0 +1,45 @@
+package com.sonng2k.accessingdatajpa;
+
+import com.sonng2k.QueryPlanInspector;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Fails the build when a query on CustomerRepository would make H2 scan or sort the whole customer table.
+@DataJpaTest
+@Import(QueryPlanInspector.class)
+class CustomerQueryPlanTests {
+
+    @Autowired
+    private QueryPlanInspector queryPlans;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private CustomerRepository customers;
+
+    @Test
+    void derivedQueriesUseAnIndex() {
+        Customer customer = entityManager.persistFlushFind(new Customer("first", "last"));
+
+        queryPlans.assertNoWholeTableQueries(CustomerRepository.class, customers, Map.of(
+                Long.class, List.of(customer.getId()),
+                String.class, List.of("last")), Set.of());
+    }
+
+    // streamAll() reads the whole table on purpose; it is only used for exports.
+    @Test
+    void streamingQueriesUseAnIndex() {
+        entityManager.persistFlushFind(new Customer("first", "last"));
+
+        queryPlans.assertNoWholeTableQueries(CustomerStreams.class, customers, Map.of(
+                String.class, List.of("last")), Set.of("streamAll"));
+    }
+}
@@ -1,5 +1,6 @@
 package com.sonng2k.accessingdatajpa;
 
+import org.hibernate.Session;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
@@ -26,4 +27,27 @@ public class CustomerRepositoryTests {
 
         assertThat(findByLastName).extracting(Customer::getLastName).containsOnly(customer.getLastName());
     }
+
+    // The test's transaction is read-write, like that of a service calling the repository, so the views join it.
+    @Test
+    public void testViewsLeaveThePersistenceContextEmpty() {
+        Customer jack = entityManager.persistFlushFind(new Customer("Jack", "Bauer"));
+        Customer kim = entityManager.persistFlushFind(new Customer("Kim", "Bauer"));
+        entityManager.persistAndFlush(new Customer("David", "Palmer"));
+        entityManager.clear();
+        Session session = entityManager.getEntityManager().unwrap(Session.class);
+
+        List<CustomerView> bauers = customers.findViewsByLastName("Bauer");
+        CustomerView view = customers.findViewById(jack.getId());
+
+        assertThat(bauers).containsExactlyInAnyOrder(
+                new CustomerView(jack.getId(), "Jack", "Bauer"),
+                new CustomerView(kim.getId(), "Kim", "Bauer"));
+        assertThat(view).isEqualTo(new CustomerView(jack.getId(), "Jack", "Bauer"));
+        assertThat(customers.findViewById(-1L)).isNull();
+        assertThat(session.getStatistics().getEntityCount()).isZero();
+
+        customers.findByLastName("Bauer");
+        assertThat(session.getStatistics().getEntityCount()).isEqualTo(2);
+    }
 }
@@ -0,0 +1,69 @@
+package com.sonng2k.accessingdatajpa;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Streams 50,000 customers and checks that Hibernate never keeps more than the current one around. The
+// persistence context is what grows with the row count when findAll() is used, so this stands in for a run
+// over millions of rows.
+@DataJpaTest
+class CustomerStreamsTests {
+
+    private static final int CUSTOMERS = 50_000;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private CustomerRepository customers;
+
+    @BeforeEach
+    void insertCustomers() {
+        List<Object[]> rows = new ArrayList<>(CUSTOMERS);
+        for (int i = 1; i <= CUSTOMERS; i++) {
+            rows.add(new Object[]{(long) i, "first" + i, i % 2 == 0 ? "Bauer" : "Palmer"});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO customer (id, first_name, last_name) VALUES (?, ?, ?)", rows);
+    }
+
+    @Test
+    void streamAllKeepsThePersistenceContextEmpty() {
+        Session session = entityManager.getEntityManager().unwrap(Session.class);
+        long count = 0;
+        int mostManaged = 0;
+        try (Stream<Customer> stream = customers.streamAll()) {
+            for (Iterator<Customer> iterator = stream.iterator(); iterator.hasNext(); ) {
+                Customer customer = iterator.next();
+                assertThat(customer.getId()).isEqualTo(++count);
+                mostManaged = Math.max(mostManaged, session.getStatistics().getEntityCount());
+            }
+        }
+        assertThat(count).isEqualTo(CUSTOMERS);
+        assertThat(mostManaged).isZero();
+    }
+
+    @Test
+    void streamByLastNameOnlyReturnsMatches() {
+        try (Stream<Customer> bauers = customers.streamByLastName("Bauer")) {
+            assertThat(bauers.map(Customer::getLastName).distinct().toList()).containsExactly("Bauer");
+        }
+        try (Stream<Customer> bauers = customers.streamByLastName("Bauer")) {
+            assertThat(bauers.count()).isEqualTo(CUSTOMERS / 2);
+        }
+    }
+}
@@ -14,6 +14,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.test.annotation.DirtiesContext;
 
 import java.net.URI;
+import java.util.List;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -119,6 +121,44 @@ class CashCardApplicationTests {
         assertThat(amounts).containsExactly(1.00, 123.45, 150.00);
     }
 
+    // 102 belongs to kumar2 and 1000 doesn't exist: both are reported as missing, without telling them apart.
+    @Test
+    void shouldReturnManyCashCardsAndTheMissingIdsInOneRequest() {
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth("sarah1", "abc123")
+                .getForEntity("/cashcards?ids=101,102,99,1000,99", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        JSONArray ids = documentContext.read("$.cards[*].id");
+        assertThat(ids).containsExactly(101, 99);
+        JSONArray missing = documentContext.read("$.missing");
+        assertThat(missing).containsExactly(102, 1000);
+    }
+
+    @Test
+    void shouldLookUpCashCardsFromARequestBody() {
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth("sarah1", "abc123")
+                .postForEntity("/cashcards/lookup", List.of(100L, 99L), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        JSONArray amounts = documentContext.read("$.cards[*].amount");
+        assertThat(amounts).containsExactly(1.00, 123.45);
+        JSONArray missing = documentContext.read("$.missing");
+        assertThat(missing).isEmpty();
+    }
+
+    @Test
+    void shouldRejectALookupOfTooManyCashCards() {
+        List<Long> ids = LongStream.rangeClosed(1, 501).boxed().toList();
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth("sarah1", "abc123")
+                .postForEntity("/cashcards/lookup", ids, String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
     /*
      Unlike restTemplate.getForEntity, we don't expect a CashCard to be returned to us, so we expect a
      Void response body.
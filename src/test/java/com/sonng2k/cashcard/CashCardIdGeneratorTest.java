@@ -0,0 +1,48 @@
+package com.sonng2k.cashcard;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class CashCardIdGeneratorTest {
+
+    @Test
+    void idsAreUniqueAcrossThreadsAndNodes() {
+        CashCardIdGenerator node1 = new CashCardIdGenerator(1);
+        CashCardIdGenerator node2 = new CashCardIdGenerator(2);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        IntStream.range(0, 200_000).parallel().forEach(i -> {
+            ids.add(node1.nextId());
+            ids.add(node2.nextId());
+        });
+        assertThat(ids).hasSize(400_000);
+    }
+
+    @Test
+    void idsIncreaseOnANode() {
+        CashCardIdGenerator generator = new CashCardIdGenerator(0);
+        long previous = generator.nextId();
+        for (int i = 0; i < 100_000; i++) {
+            long next = generator.nextId();
+            assertThat(next).isGreaterThan(previous);
+            previous = next;
+        }
+    }
+
+    @Test
+    void onlyNewCardsGetAnId() {
+        CashCardIdGenerator generator = new CashCardIdGenerator(0);
+        assertThat(generator.onBeforeConvert(new CashCard(null, 1.00, "sarah1")).id()).isPositive();
+        assertThat(generator.onBeforeConvert(new CashCard(99L, 1.00, "sarah1")).id()).isEqualTo(99L);
+    }
+
+    @Test
+    void nodeIdMustFitInTenBits() {
+        assertThatIllegalArgumentException().isThrownBy(() -> new CashCardIdGenerator(1024));
+    }
+}
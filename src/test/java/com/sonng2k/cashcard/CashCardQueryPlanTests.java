@@ -0,0 +1,65 @@
+package com.sonng2k.cashcard;
+
+import com.sonng2k.QueryPlanInspector;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.jdbc.DataJdbcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Fails the build when a query on CashCardRepository would make H2 scan or sort the whole cash_card table, for
+// example because someone added a derived query without an index or a sortable property without its index.
+@DataJdbcTest
+@Import(QueryPlanInspector.class)
+class CashCardQueryPlanTests {
+
+    @Autowired
+    private QueryPlanInspector queryPlans;
+
+    @Autowired
+    private CashCardRepository cashCardRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void derivedQueriesUseAnIndex() {
+        List<PageRequest> pages = new ArrayList<>();
+        for (String property : CashCardController.SORTABLE_PROPERTIES) {
+            pages.add(PageRequest.of(0, 20, Sort.by(Sort.Direction.ASC, property)));
+            pages.add(PageRequest.of(1, 1, Sort.by(Sort.Direction.DESC, property)));
+        }
+        queryPlans.assertNoWholeTableQueries(CashCardRepository.class, cashCardRepository, Map.of(
+                Long.class, List.of(99L),
+                String.class, List.of("sarah1"),
+                PageRequest.class, pages,
+                Collection.class, List.of(List.of(99L), List.of(99L, 100L, 101L, 102L))), Set.of());
+    }
+
+    @Test
+    void everySortablePropertyIsBackedByAnOwnerIndex() {
+        Map<String, List<String>> indexColumns = jdbcTemplate.queryForList("""
+                        SELECT INDEX_NAME, COLUMN_NAME FROM INFORMATION_SCHEMA.INDEX_COLUMNS
+                        WHERE TABLE_NAME = 'CASH_CARD' ORDER BY INDEX_NAME, ORDINAL_POSITION""")
+                .stream()
+                .collect(Collectors.groupingBy(row -> (String) row.get("INDEX_NAME"),
+                        Collectors.mapping(row -> (String) row.get("COLUMN_NAME"), Collectors.toList())));
+
+        for (String property : CashCardController.SORTABLE_PROPERTIES) {
+            assertThat(indexColumns.values())
+                    .as("index on (OWNER, %s)", property)
+                    .contains(List.of("OWNER", property.toUpperCase()));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.sonng2k.cashcard;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Card 99 is configured for write-behind, so it can't take part in transfers.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "cashcard.write-behind.card-ids=99"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardTransferTests {
+
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Autowired
+    CashCardTransfers cashCardTransfers;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void shouldApplyEveryTransferOfARequest() {
+        // 101 pays 100 and then spends part of it again; the net result is what counts.
+        ResponseEntity<String> response = transfer("""
+                [{"from": 101, "to": 100, "amount": 50.00},
+                 {"from": 100, "to": 101, "amount": 20.50}]""");
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        assertThat(documentContext.read("$[*].id", List.class)).containsExactly(100, 101);
+        assertThat(documentContext.read("$[0].amount", Double.class)).isEqualTo(30.50);
+        assertThat(documentContext.read("$[1].amount", Double.class)).isEqualTo(120.50);
+        assertThat(databaseAmount(100)).isEqualByComparingTo("30.50");
+        assertThat(databaseAmount(101)).isEqualByComparingTo("120.50");
+
+        ResponseEntity<String> card = restTemplate
+                .withBasicAuth("sarah1", "abc123")
+                .getForEntity("/cashcards/100", String.class);
+        assertThat(JsonPath.parse(card.getBody()).read("$.amount", Double.class)).isEqualTo(30.50);
+    }
+
+    @Test
+    void shouldApplyNothingWhenOneTransferLacksFunds() {
+        ResponseEntity<String> response = transfer("""
+                [{"from": 101, "to": 100, "amount": 10.00},
+                 {"from": 100, "to": 101, "amount": 500.00}]""");
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+        assertThat(databaseAmount(100)).isEqualByComparingTo("1.00");
+        assertThat(databaseAmount(101)).isEqualByComparingTo("150.00");
+    }
+
+    @Test
+    void shouldNotTransferFromOrToCardsOfAnotherOwner() {
+        assertThat(transfer("[{\"from\": 102, \"to\": 100, \"amount\": 1.00}]").getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(transfer("[{\"from\": 100, \"to\": 102, \"amount\": 1.00}]").getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(databaseAmount(102)).isEqualByComparingTo("200.00");
+    }
+
+    @Test
+    void shouldRejectInvalidTransfers() {
+        assertThat(transfer("[]").getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(transfer("[{\"from\": 100, \"to\": 100, \"amount\": 1.00}]").getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(transfer("[{\"from\": 101, \"to\": 100, \"amount\": -1.00}]").getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(transfer("[{\"from\": 101, \"to\": 100, \"amount\": 0.001}]").getStatusCode())
+                .isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void shouldRefuseWriteBehindCards() {
+        assertThat(transfer("[{\"from\": 99, \"to\": 100, \"amount\": 1.00}]").getStatusCode())
+                .isEqualTo(HttpStatus.CONFLICT);
+        assertThat(databaseAmount(99)).isEqualByComparingTo("123.45");
+    }
+
+    // Hundreds of requests in flight over the same 10 cards, each listing its cards in random order. Ordered
+    // locking means none of them may fail with a deadlock or lock timeout, and every card must end up with exactly
+    // the amount the successful requests add up to.
+    @Test
+    void concurrentOverlappingTransfersKeepEveryBalanceExact() throws Exception {
+        String owner = "transfer-stress";
+        int cards = 10;
+        Map<Long, BigDecimal> expected = new ConcurrentHashMap<>();
+        for (long id = 1_000; id < 1_000 + cards; id++) {
+            jdbcTemplate.update("INSERT INTO cash_card (ID, AMOUNT, OWNER) VALUES (?, ?, ?)", id, 100, owner);
+            expected.put(id, new BigDecimal("100"));
+        }
+
+        int requests = 2_000;
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger insufficientFunds = new AtomicInteger();
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(200);
+        for (int i = 0; i < requests; i++) {
+            executor.execute(() -> {
+                List<CashCardTransfer> transfers = randomTransfers(cards);
+                try {
+                    cashCardTransfers.transfer(owner, transfers);
+                    transfers.forEach(transfer -> {
+                        expected.merge(transfer.from(), transfer.amount().negate(), BigDecimal::add);
+                        expected.merge(transfer.to(), transfer.amount(), BigDecimal::add);
+                    });
+                    succeeded.incrementAndGet();
+                } catch (ResponseStatusException e) {
+                    if (e.getStatusCode() == HttpStatus.UNPROCESSABLE_ENTITY) {
+                        insufficientFunds.incrementAndGet();
+                    } else {
+                        failures.add(e);
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(2, TimeUnit.MINUTES)).isTrue();
+
+        assertThat(failures).isEmpty();
+        assertThat(succeeded.get() + insufficientFunds.get()).isEqualTo(requests);
+        assertThat(succeeded.get()).isGreaterThan(requests / 2);
+        Map<Long, BigDecimal> actual = new ConcurrentHashMap<>();
+        jdbcTemplate.query("SELECT ID, AMOUNT FROM cash_card WHERE OWNER = ?",
+                row -> {
+                    actual.put(row.getLong(1), row.getBigDecimal(2));
+                }, owner);
+        assertThat(actual).hasSameSizeAs(expected);
+        expected.forEach((id, amount) -> {
+            assertThat(actual.get(id)).as("card %d", id).isEqualByComparingTo(amount);
+            assertThat(actual.get(id).signum()).as("card %d", id).isNotNegative();
+        });
+    }
+
+    private static List<CashCardTransfer> randomTransfers(int cards) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<CashCardTransfer> transfers = new ArrayList<>();
+        for (int i = random.nextInt(1, 5); i > 0; i--) {
+            long from = 1_000 + random.nextInt(cards);
+            long to = 1_000 + (from - 1_000 + random.nextInt(1, cards)) % cards;
+            transfers.add(new CashCardTransfer(from, to, BigDecimal.valueOf(random.nextInt(1, 5_000), 2)));
+        }
+        return transfers;
+    }
+
+    private ResponseEntity<String> transfer(String json) {
+        return restTemplate
+                .withBasicAuth("sarah1", "abc123")
+                .postForEntity("/cashcards/transfers", jsonEntity(json), String.class);
+    }
+
+    private static HttpEntity<String> jsonEntity(String json) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new HttpEntity<>(json, headers);
+    }
+
+    private BigDecimal databaseAmount(long id) {
+        return jdbcTemplate.queryForObject("SELECT AMOUNT FROM cash_card WHERE ID = ?", BigDecimal.class, id);
+    }
+}
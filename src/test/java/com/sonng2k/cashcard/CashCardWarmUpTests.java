@@ -0,0 +1,67 @@
+package com.sonng2k.cashcard;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "cashcard.warmup.enabled=true",
+        "cashcard.warmup.iterations=20"})
+@DirtiesContext
+class CashCardWarmUpTests {
+
+    // Remembers how far the warm-up had come when the application declared itself ready for traffic.
+    @TestConfiguration
+    static class ReadinessProbe {
+
+        final AtomicInteger iterationsWhenReady = new AtomicInteger(-1);
+
+        @Autowired
+        ObjectProvider<CashCardWarmUp> warmUp;
+
+        @EventListener
+        void onReadiness(AvailabilityChangeEvent<ReadinessState> event) {
+            if (event.getState() == ReadinessState.ACCEPTING_TRAFFIC) {
+                iterationsWhenReady.set(warmUp.getObject().completedIterations());
+            }
+        }
+    }
+
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Autowired
+    ReadinessProbe readinessProbe;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void readinessWaitsForTheWarmUp() {
+        assertThat(readinessProbe.iterationsWhenReady.get()).isEqualTo(20);
+
+        ResponseEntity<String> readiness = restTemplate.getForEntity("/actuator/health/readiness", String.class);
+        assertThat(readiness.getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void theSyntheticOwnerLeavesNoCardsBehind() {
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cash_card WHERE OWNER LIKE 'warmup-%'",
+                Integer.class)).isZero();
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cash_card", Integer.class)).isEqualTo(4);
+    }
+}
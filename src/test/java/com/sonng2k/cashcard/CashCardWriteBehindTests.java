@@ -0,0 +1,174 @@
+package com.sonng2k.cashcard;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+// Card 99 is configured for write-behind. The flush interval is long enough that the tests decide when to flush.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "cashcard.write-behind.card-ids=99",
+        "cashcard.write-behind.flush-interval=PT10S"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CashCardWriteBehindTests {
+
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Autowired
+    CashCardWriteBehind writeBehind;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void successiveUpdatesAreMergedAndReadBackBeforeTheFlush() {
+        assertThat(put(99, 10.00).getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(put(99, 20.00).getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        assertThat(writeBehind.pendingCount()).isEqualTo(1);
+        assertThat(amountOf(get("/cashcards/99"), "$.amount")).isEqualTo(20.00);
+        assertThat(amountOf(get("/cashcards?sort=id,asc"), "$[0].amount")).isEqualTo(20.00);
+
+        assertThat(writeBehind.flush()).isTrue();
+
+        assertThat(writeBehind.pendingCount()).isZero();
+        assertThat(databaseAmount(99)).isEqualTo(20.00);
+    }
+
+    // CardTransactionBatchListener, another instance or a manual fix may change the row behind write-behind's back.
+    @Test
+    void changesMadeOutsideAreKeptAndShowUpAfterTheNextFlush() {
+        assertThat(put(99, 100.00).getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        jdbcTemplate.update("UPDATE cash_card SET AMOUNT = AMOUNT + 5 WHERE ID = 99");
+
+        assertThat(writeBehind.flush()).isTrue();
+
+        assertThat(databaseAmount(99)).isEqualTo(105.00);
+        assertThat(amountOf(get("/cashcards/99"), "$.amount")).isEqualTo(105.00);
+
+        jdbcTemplate.update("UPDATE cash_card SET AMOUNT = AMOUNT + 1 WHERE ID = 99");
+        assertThat(writeBehind.flush()).isTrue();
+        assertThat(amountOf(get("/cashcards/99"), "$.amount")).isEqualTo(106.00);
+    }
+
+    // The PUT back to 100 lands while the flush is writing +10: it must still reach memory and the database.
+    // Runs on its own instance over a mock repository, so the PUT can be made from inside updateBalances().
+    @Test
+    @SuppressWarnings("unchecked")
+    void anUpdateMadeWhileItsCardIsBeingFlushedIsFlushedNext() throws InterruptedException {
+        CashCardRepository repository = mock(CashCardRepository.class);
+        Map<Long, BigDecimal> database = new HashMap<>(Map.of(99L, new BigDecimal("100.00")));
+        given(repository.findById(99L)).willAnswer(invocation ->
+                Optional.of(new CashCard(99L, database.get(99L).doubleValue(), "sarah1")));
+        CashCardWriteBehind writeBehind = new CashCardWriteBehind(repository, mock(ObjectProvider.class),
+                Set.of(99L), Duration.ofSeconds(10), Duration.ofSeconds(5));
+        AtomicBoolean putBack = new AtomicBoolean();
+        given(repository.updateBalances(eq("sarah1"), any(), any())).willAnswer(invocation -> {
+            if (putBack.compareAndSet(false, true)) {
+                writeBehind.update(new CashCard(99L, 100.00, "sarah1"));
+            }
+            UnaryOperator<Map<Long, BigDecimal>> change = invocation.getArgument(2);
+            Map<Long, BigDecimal> stored = change.apply(Map.of(99L, database.get(99L)));
+            database.putAll(stored);
+            return stored;
+        });
+        try {
+            assertThat(writeBehind.find(99L, "sarah1").amount()).isEqualTo(100.00);
+            writeBehind.update(new CashCard(99L, 110.00, "sarah1"));
+
+            assertThat(writeBehind.flush()).isTrue();
+
+            assertThat(database.get(99L)).isEqualByComparingTo("110.00");
+            assertThat(writeBehind.find(99L, "sarah1").amount()).isEqualTo(100.00);
+            assertThat(writeBehind.pendingCount()).isEqualTo(1);
+
+            assertThat(writeBehind.flush()).isTrue();
+
+            assertThat(database.get(99L)).isEqualByComparingTo("100.00");
+            assertThat(writeBehind.find(99L, "sarah1").amount()).isEqualTo(100.00);
+            assertThat(writeBehind.pendingCount()).isZero();
+        } finally {
+            writeBehind.shutdown();
+        }
+    }
+
+    @Test
+    void otherCardsAreStillWrittenThrough() {
+        assertThat(put(100, 5.00).getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        assertThat(writeBehind.pendingCount()).isZero();
+        assertThat(databaseAmount(100)).isEqualTo(5.00);
+    }
+
+    @Test
+    void deletingACardDropsItsPendingUpdate() {
+        put(99, 10.00);
+
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("sarah1", "abc123")
+                .exchange("/cashcards/99", HttpMethod.DELETE, null, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        assertThat(writeBehind.pendingCount()).isZero();
+        assertThat(writeBehind.flush()).isTrue();
+        assertThat(get("/cashcards/99").getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM cash_card WHERE id = 99", Integer.class))
+                .isZero();
+    }
+
+    @Test
+    void ownershipIsCheckedAgainstTheInMemoryCard() {
+        put(99, 10.00);
+
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth("kumar2", "xyz789")
+                .getForEntity("/cashcards/99", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    private ResponseEntity<Void> put(long id, double amount) {
+        return restTemplate
+                .withBasicAuth("sarah1", "abc123")
+                .exchange("/cashcards/" + id, HttpMethod.PUT, new HttpEntity<>(new CashCard(null, amount, null)),
+                        Void.class);
+    }
+
+    private ResponseEntity<String> get(String uri) {
+        return restTemplate.withBasicAuth("sarah1", "abc123").getForEntity(uri, String.class);
+    }
+
+    private static double amountOf(ResponseEntity<String> response, String path) {
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        return ((Number) documentContext.read(path)).doubleValue();
+    }
+
+    private double databaseAmount(long id) {
+        return jdbcTemplate.queryForObject("SELECT amount FROM cash_card WHERE id = ?", Double.class, id);
+    }
+}
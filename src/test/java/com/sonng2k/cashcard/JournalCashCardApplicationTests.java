@@ -0,0 +1,9 @@
+package com.sonng2k.cashcard;
+
+import org.springframework.test.context.ActiveProfiles;
+
+// Every test of CashCardApplicationTests again, with the cash cards kept in the journal (see JournalConfig)
+// instead of the cash_card table. The journal starts out with the cards of data.sql, imported from the table.
+@ActiveProfiles("journal")
+class JournalCashCardApplicationTests extends CashCardApplicationTests {
+}
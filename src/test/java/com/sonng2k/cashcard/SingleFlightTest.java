@@ -0,0 +1,148 @@
+package com.sonng2k.cashcard;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 16;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallsForTheSameKeyShareOneCall() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofSeconds(10));
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> flight.load("sarah1/99", () -> {
+                calls.incrementAndGet();
+                await(release);
+                return "card 99";
+            })));
+        }
+        awaitWaiting(flight, CALLERS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("card 99");
+        }
+        assertThat(calls).hasValue(1);
+        assertThat(flight.calls()).isEqualTo(1);
+        assertThat(flight.shared()).isEqualTo(CALLERS - 1);
+    }
+
+    @Test
+    void differentKeysDoNotShare() {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofSeconds(10));
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> sarah = executor.submit(() -> flight.load("sarah1/99", () -> {
+            await(release);
+            return "sarah's card";
+        }));
+
+        assertThat(flight.load("kumar2/99", () -> "nothing")).isEqualTo("nothing");
+        release.countDown();
+        assertThat(flight.calls()).isEqualTo(2);
+        assertThat(sarah).succeedsWithin(Duration.ofSeconds(5)).isEqualTo("sarah's card");
+    }
+
+    @Test
+    void followersRunTheCallThemselvesAfterTheTimeout() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofMillis(50));
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> stuck = executor.submit(() -> flight.load("key", () -> {
+            await(release);
+            return "late";
+        }));
+        awaitCalls(flight, 1);
+
+        assertThat(flight.load("key", () -> "own")).isEqualTo("own");
+        assertThat(flight.timedOut()).isEqualTo(1);
+        assertThat(flight.calls()).isEqualTo(2);
+        release.countDown();
+        assertThat(stuck.get(5, TimeUnit.SECONDS)).isEqualTo("late");
+    }
+
+    @Test
+    void followersShareTheLeadersException() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofSeconds(10));
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> flight.load("key", () -> {
+            await(release);
+            throw new IllegalStateException("database down");
+        }));
+        awaitCalls(flight, 1);
+        Future<String> follower = executor.submit(() -> flight.load("key", () -> "never called"));
+        awaitWaiting(flight, 1);
+        release.countDown();
+
+        assertThat(leader).failsWithin(Duration.ofSeconds(5));
+        assertThat(follower).failsWithin(Duration.ofSeconds(5))
+                .withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IllegalStateException.class);
+        assertThat(flight.calls()).isEqualTo(1);
+    }
+
+    @Test
+    void forgottenKeysStartANewCall() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofSeconds(10));
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> before = executor.submit(() -> flight.load("sarah1/99", () -> {
+            await(release);
+            return "before the write";
+        }));
+        awaitCalls(flight, 1);
+
+        flight.forgetIf(key -> key.startsWith("sarah1/"));
+
+        assertThat(flight.load("sarah1/99", () -> "after the write")).isEqualTo("after the write");
+        release.countDown();
+        assertThat(before.get(5, TimeUnit.SECONDS)).isEqualTo("before the write");
+    }
+
+    private static void awaitWaiting(SingleFlight<?, ?> flight, int followers) {
+        awaitUntil(() -> flight.waiting() >= followers);
+    }
+
+    private static void awaitCalls(SingleFlight<?, ?> flight, long calls) {
+        awaitUntil(() -> flight.calls() >= calls);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("waited too long").isLessThan(deadline);
+            Thread.onSpinWait();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.sonng2k.cashcard.journal;
+
+import com.sonng2k.cashcard.CashCard;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CashCardJournalTest {
+
+    private static final int SEGMENT_SIZE = 4 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversItsStateByReplayingTheLog() throws IOException {
+        try (CashCardJournal journal = open()) {
+            journal.write(List.of(new CashCard(1L, 10.0, "sarah1"), new CashCard(2L, 5.0, "sarah1"),
+                    new CashCard(3L, 7.5, "kumar2")), List.of());
+            journal.write(List.of(new CashCard(2L, 50.0, "sarah1")), List.of(3L));
+        }
+
+        try (CashCardJournal journal = open()) {
+            assertThat(journal.count()).isEqualTo(2);
+            assertThat(journal.find(2L)).isEqualTo(new CashCard(2L, 50.0, "sarah1"));
+            assertThat(journal.find(3L)).isNull();
+            assertThat(journal.countByOwner("kumar2")).isZero();
+            assertThat(journal.findByOwner("sarah1", true, true, 0, 10))
+                    .extracting(CashCard::id).containsExactly(2L, 1L);
+            assertThat(journal.findByOwner("sarah1", false, false, 1, 10))
+                    .extracting(CashCard::id).containsExactly(2L);
+        }
+    }
+
+    @Test
+    void dropsARecordTornByACrashAndKeepsAppending() throws IOException {
+        try (CashCardJournal journal = open()) {
+            journal.write(List.of(new CashCard(1L, 10.0, "sarah1")), List.of());
+        }
+        // Header, count and one entry for "sarah1"; then the start of a record that never got its CRC.
+        int end = 8 + 4 + 19 + 6;
+        try (FileChannel channel = FileChannel.open(directory.resolve("segment-1.log"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(16).putInt(60).putInt(0).putInt(1).put((byte) 1).flip(), end);
+        }
+
+        try (CashCardJournal journal = open()) {
+            assertThat(journal.count()).isEqualTo(1);
+            journal.write(List.of(new CashCard(2L, 20.0, "sarah1")), List.of());
+        }
+        try (CashCardJournal journal = open()) {
+            assertThat(journal.findAll()).extracting(CashCard::id).containsExactlyInAnyOrder(1L, 2L);
+        }
+    }
+
+    @Test
+    void refusesToOpenADamagedSegmentThatIsNotTheLast() throws IOException {
+        try (CashCardJournal journal = open()) {
+            writeUntilSegment(journal, 2);
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve("segment-1.log"), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), 20);
+        }
+
+        assertThatThrownBy(this::open)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("segment-1.log is damaged");
+    }
+
+    @Test
+    void compactionKeepsOnlyTheLatestVersionOfEachCard() throws IOException {
+        try (CashCardJournal journal = open()) {
+            for (int round = 1; round <= 100; round++) {
+                List<CashCard> cards = new ArrayList<>();
+                for (long id = 1; id <= 10; id++) {
+                    cards.add(new CashCard(id, (double) round, "sarah1"));
+                }
+                journal.write(cards, round == 100 ? List.of(10L) : List.of());
+            }
+            long before = journalBytes();
+
+            assertThat(journal.compact()).isTrue();
+
+            assertThat(journalBytes()).isLessThan(before / 4);
+            assertThat(fileNames()).anyMatch(name -> name.startsWith("compacted-"));
+            assertThat(journal.count()).isEqualTo(9);
+            assertThat(journal.find(1L).amount()).isEqualTo(100.0);
+            // Nothing left to gain until more cards change.
+            assertThat(journal.compact()).isFalse();
+
+            journal.write(List.of(new CashCard(1L, 1_000.0, "sarah1")), List.of());
+        }
+
+        try (CashCardJournal journal = open()) {
+            assertThat(journal.count()).isEqualTo(9);
+            assertThat(journal.find(1L).amount()).isEqualTo(1_000.0);
+            assertThat(journal.find(2L).amount()).isEqualTo(100.0);
+            assertThat(journal.find(10L)).isNull();
+            assertThat(journal.findByOwner("sarah1", true, true, 0, 1))
+                    .extracting(CashCard::id).containsExactly(1L);
+        }
+    }
+
+    @Test
+    void recoveryPrefersAFinishedCompactionOverTheFilesItReplaced() throws IOException {
+        Path stale = directory.resolveSibling(directory.getFileName() + "-segment-1.log");
+        double latest;
+        try (CashCardJournal journal = open()) {
+            writeUntilSegment(journal, 3);
+            Files.copy(directory.resolve("segment-1.log"), stale);
+            assertThat(journal.compact()).isTrue();
+            latest = journal.find(1L).amount();
+        }
+        // As if the process died between renaming compacted-2.log into place and deleting segment-1.log, while
+        // a later compaction was still writing its temporary file.
+        Files.move(stale, directory.resolve("segment-1.log"));
+        Files.write(directory.resolve("compacted-3.log.tmp"), new byte[]{1, 2, 3});
+
+        try (CashCardJournal journal = open()) {
+            assertThat(journal.find(1L).amount()).isEqualTo(latest);
+            assertThat(fileNames()).containsExactlyInAnyOrder("compacted-2.log", "segment-3.log");
+        }
+    }
+
+    private void writeUntilSegment(CashCardJournal journal, int segment) {
+        for (int round = 0; !Files.exists(directory.resolve("segment-" + segment + ".log")); round++) {
+            journal.write(List.of(new CashCard(1L, (double) round, "sarah1")), List.of());
+        }
+    }
+
+    private CashCardJournal open() throws IOException {
+        return new CashCardJournal(directory, SEGMENT_SIZE, false, Duration.ZERO, false);
+    }
+
+    private long journalBytes() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private List<String> fileNames() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).toList();
+        }
+    }
+}
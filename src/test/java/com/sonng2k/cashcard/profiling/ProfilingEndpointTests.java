@@ -0,0 +1,90 @@
+package com.sonng2k.cashcard.profiling;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@DirtiesContext
+class ProfilingEndpointTests {
+
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Test
+    void onlyOperatorsCanProfile() {
+        ResponseEntity<String> anonymous = restTemplate.postForEntity("/actuator/profiling", Map.of(), String.class);
+        assertThat(anonymous.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+
+        ResponseEntity<String> cardOwner = restTemplate.withBasicAuth("sarah1", "abc123")
+                .postForEntity("/actuator/profiling", Map.of(), String.class);
+        assertThat(cardOwner.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+
+        assertThat(restTemplate.getForEntity("/actuator/health", String.class).getStatusCode())
+                .isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void recordsSummarisesAndDownloadsAProfile() {
+        ResponseEntity<String> started = asOps()
+                .postForEntity("/actuator/profiling", Map.of("settings", "profile", "duration", "PT1M"), String.class);
+        assertThat(started.getStatusCode()).isEqualTo(HttpStatus.OK);
+        Number id = JsonPath.parse(started.getBody()).read("$.id");
+
+        ResponseEntity<String> second = asOps().postForEntity("/actuator/profiling", Map.of(), String.class);
+        assertThat(second.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+
+        for (int i = 0; i < 200; i++) {
+            restTemplate.withBasicAuth("sarah1", "abc123").getForEntity("/cashcards", String.class);
+        }
+
+        ResponseEntity<String> stopped = asOps()
+                .postForEntity("/actuator/profiling/" + id, Map.of(), String.class);
+        assertThat(stopped.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        ResponseEntity<String> report = asOps().getForEntity("/actuator/profiling/" + id, String.class);
+        assertThat(report.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext json = JsonPath.parse(report.getBody());
+        assertThat(json.read("$.recording.settings", String.class)).isEqualTo("profile");
+        assertThat(json.read("$.summary.cpu", List.class)).isNotNull();
+        assertThat(json.read("$.summary.allocation", List.class)).isNotNull();
+        assertThat(json.read("$.summary.locks", List.class)).isNotNull();
+        assertThat(json.read("$.summary.gc.collections", Number.class)).isNotNull();
+
+        ResponseEntity<byte[]> file = asOps()
+                .getForEntity("/actuator/profiling/" + id + "/recording.jfr", byte[].class);
+        assertThat(file.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(new String(Arrays.copyOf(file.getBody(), 3), StandardCharsets.US_ASCII)).isEqualTo("FLR");
+
+        ResponseEntity<Void> deleted = asOps()
+                .exchange("/actuator/profiling/" + id, HttpMethod.DELETE, null, Void.class);
+        assertThat(deleted.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(asOps().getForEntity("/actuator/profiling/" + id, String.class).getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void rejectsDurationsOverTheLimit() {
+        ResponseEntity<String> response = asOps()
+                .postForEntity("/actuator/profiling", Map.of("duration", "PT1H"), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    private TestRestTemplate asOps() {
+        return restTemplate.withBasicAuth("ops1", "def456");
+    }
+}
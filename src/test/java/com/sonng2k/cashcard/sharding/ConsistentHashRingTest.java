@@ -0,0 +1,42 @@
+package com.sonng2k.cashcard.sharding;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConsistentHashRingTest {
+
+    private static final int OWNERS = 20_000;
+
+    @Test
+    void ownersAreSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2", "shard-3"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < OWNERS; i++) {
+            counts.merge(ring.shardFor("owner-" + i), 1, Integer::sum);
+        }
+        assertThat(counts).hasSize(4);
+        assertThat(counts.values())
+                .allSatisfy(count -> assertThat(count).isBetween(OWNERS / 4 * 3 / 4, OWNERS / 4 * 5 / 4));
+    }
+
+    @Test
+    void addingAShardOnlyMovesOwnersToTheNewShard() {
+        ConsistentHashRing before = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2"));
+        ConsistentHashRing after = new ConsistentHashRing(List.of("shard-0", "shard-1", "shard-2", "shard-3"));
+        int moved = 0;
+        for (int i = 0; i < OWNERS; i++) {
+            String owner = "owner-" + i;
+            if (!before.shardFor(owner).equals(after.shardFor(owner))) {
+                assertThat(after.shardFor(owner)).isEqualTo("shard-3");
+                moved++;
+            }
+        }
+        // About a quarter of the owners; hash % n would have moved three quarters.
+        assertThat(moved).isBetween(OWNERS / 4 * 3 / 4, OWNERS / 4 * 5 / 4);
+    }
+}
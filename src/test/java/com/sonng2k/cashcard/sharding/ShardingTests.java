@@ -0,0 +1,144 @@
+package com.sonng2k.cashcard.sharding;
+
+import com.sonng2k.cashcard.CashCard;
+import com.sonng2k.cashcard.CashCardWriteBehind;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Three embedded H2 databases as shards. Which owner lands on which shard depends on the hash ring, so the
+// tests ask the router instead of hard-coding shard names. Card 99 is configured for write-behind, flushed only
+// when a test calls flush().
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "cashcard.sharding.urls=jdbc:h2:mem:sharding-0,jdbc:h2:mem:sharding-1,jdbc:h2:mem:sharding-2",
+        "cashcard.write-behind.card-ids=99",
+        "cashcard.write-behind.flush-interval=PT10S"})
+@ActiveProfiles("sharding")
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class ShardingTests {
+
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Autowired
+    ShardRouter router;
+
+    @Autowired
+    ShardRebalancer rebalancer;
+
+    @Autowired
+    CashCardWriteBehind writeBehind;
+
+    @Test
+    void seedDataIsMovedToEachOwnersShardOnStartup() {
+        assertThat(cardsOf("sarah1", router.shardFor("sarah1"))).isEqualTo(3);
+        assertThat(cardsOf("kumar2", router.shardFor("kumar2"))).isEqualTo(1);
+        assertThat(rebalancer.shards().values())
+                .allSatisfy(shard -> assertThat(shard.misplacedOwners()).isZero());
+        assertThat(rebalancer.shards().values().stream().mapToLong(ShardRebalancer.ShardSummary::cards).sum())
+                .isEqualTo(4);
+    }
+
+    @Test
+    void requestsReadAndWriteTheOwnersShard() {
+        ResponseEntity<String> found = restTemplate.withBasicAuth("sarah1", "abc123")
+                .getForEntity("/cashcards/99", String.class);
+        assertThat(found.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        URI location = restTemplate.withBasicAuth("kumar2", "xyz789")
+                .postForLocation("/cashcards", new CashCard(null, 42.00, null));
+        long id = Long.parseLong(location.getPath().substring("/cashcards/".length()));
+
+        for (String shard : router.shards().keySet()) {
+            Integer rows = jdbc(shard).queryForObject("SELECT COUNT(*) FROM cash_card WHERE ID = ?", Integer.class, id);
+            assertThat(rows).isEqualTo(shard.equals(router.shardFor("kumar2")) ? 1 : 0);
+        }
+    }
+
+    @Test
+    void rebalanceMovesMisplacedCardsWithoutChangingTheirIds() {
+        String wrongShard = otherShardThan(router.shardFor("sarah1"));
+        jdbc(wrongShard).update("INSERT INTO cash_card (ID, AMOUNT, OWNER) VALUES (5000, 7.00, 'sarah1')");
+        assertThat(getAsSarah("/cashcards/5000").getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+        assertThat(rebalancer.rebalance()).isEqualTo(new ShardRebalancer.RebalanceResult(1, 1));
+
+        assertThat(getAsSarah("/cashcards/5000").getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(cardsOf("sarah1", wrongShard)).isZero();
+        assertThat(cardsOf("sarah1", router.shardFor("sarah1"))).isEqualTo(4);
+    }
+
+    @Test
+    void rebalanceFinishesAnInterruptedMove() {
+        // As if a move crashed after copying card 99 to sarah1's shard but before deleting the original.
+        String wrongShard = otherShardThan(router.shardFor("sarah1"));
+        jdbc(wrongShard).update("INSERT INTO cash_card (ID, AMOUNT, OWNER) VALUES (99, 123.45, 'sarah1')");
+
+        assertThat(rebalancer.rebalance()).isEqualTo(new ShardRebalancer.RebalanceResult(1, 0));
+
+        assertThat(cardsOf("sarah1", wrongShard)).isZero();
+        assertThat(cardsOf("sarah1", router.shardFor("sarah1"))).isEqualTo(3);
+    }
+
+    // While sarah1 is moved, her cards are briefly on neither shard the ring could send the flush to. The flush
+    // has to wait for the move instead of taking card 99 for deleted and dropping its pending update.
+    @Test
+    void writeBehindFlushWaitsForAnOwnerBeingMoved() throws Exception {
+        ResponseEntity<Void> put = restTemplate.withBasicAuth("sarah1", "abc123").exchange("/cashcards/99",
+                HttpMethod.PUT, new HttpEntity<>(new CashCard(null, 10.00, null)), Void.class);
+        assertThat(put.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(writeBehind.pendingCount()).isEqualTo(1);
+
+        String home = router.shardFor("sarah1");
+        String elsewhere = otherShardThan(home);
+        CompletableFuture<Boolean> flush;
+        Lock lock = router.lockFor("sarah1").writeLock();
+        lock.lock();
+        try {
+            rebalancer.moveOwner("sarah1", home, elsewhere);
+            flush = CompletableFuture.supplyAsync(writeBehind::flush);
+            Thread.sleep(200);
+            assertThat(flush).isNotDone();
+            rebalancer.moveOwner("sarah1", elsewhere, home);
+        } finally {
+            lock.unlock();
+        }
+
+        assertThat(flush.get(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(writeBehind.pendingCount()).isZero();
+        assertThat(jdbc(home).queryForObject("SELECT AMOUNT FROM cash_card WHERE ID = 99", Double.class))
+                .isEqualTo(10.00);
+        assertThat(getAsSarah("/cashcards/99").getBody()).contains("10.0");
+    }
+
+    private ResponseEntity<String> getAsSarah(String path) {
+        return restTemplate.withBasicAuth("sarah1", "abc123").getForEntity(path, String.class);
+    }
+
+    private String otherShardThan(String shard) {
+        return router.shards().keySet().stream().filter(name -> !name.equals(shard)).findFirst().orElseThrow();
+    }
+
+    private int cardsOf(String owner, String shard) {
+        return jdbc(shard).queryForObject("SELECT COUNT(*) FROM cash_card WHERE OWNER = ?", Integer.class, owner);
+    }
+
+    private JdbcTemplate jdbc(String shard) {
+        return new JdbcTemplate(router.shards().get(shard));
+    }
+}
@@ -0,0 +1,219 @@
+package com.sonng2k.messagingrabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.test.TestRabbitTemplate;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+// Posts card transactions into the cash_card schema on H2. RabbitMQ is replaced by spring-rabbit-test's
+// TestRabbitTemplate, which hands messages straight to the container's listener, and by a mock Channel on which
+// the acks are verified. Batches are handed to the listener directly, the way a consumerBatchEnabled container
+// would. Nothing runs in a test transaction, so the listener's commits are real.
+@JdbcTest(properties = {
+        "spring.sql.init.schema-locations=classpath:com/sonng2k/cashcard/schema.sql",
+        "spring.sql.init.data-locations=classpath:com/sonng2k/cashcard/data.sql"})
+@Import(CardTransactionBatchListenerTest.Config.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+class CardTransactionBatchListenerTest {
+
+    @TestConfiguration
+    static class Config {
+
+        @Bean
+        Channel channel() {
+            Channel channel = mock(Channel.class);
+            given(channel.isOpen()).willReturn(true);
+            return channel;
+        }
+
+        @Bean
+        ConnectionFactory connectionFactory(Channel channel) {
+            ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+            Connection connection = mock(Connection.class);
+            given(connectionFactory.createConnection()).willReturn(connection);
+            given(connection.createChannel(anyBoolean())).willReturn(channel);
+            return connectionFactory;
+        }
+
+        @Bean
+        MessageConverter messageConverter() {
+            return new RecordMessageConverter().register(2, CardTransaction.class);
+        }
+
+        @Bean
+        CardTransactionBatchListener cardTransactionListener(MessageConverter messageConverter,
+                                                             JdbcTemplate jdbcTemplate,
+                                                             PlatformTransactionManager transactionManager) {
+            return new CardTransactionBatchListener(messageConverter, jdbcTemplate, transactionManager);
+        }
+
+        // Never started: TestRabbitTemplate only needs it to find the listener of the queue.
+        @Bean
+        SimpleMessageListenerContainer cardTransactionContainer(ConnectionFactory connectionFactory,
+                                                                CardTransactionBatchListener cardTransactionListener) {
+            SimpleMessageListenerContainer container = new SimpleMessageListenerContainer(connectionFactory);
+            container.setQueueNames(MessagingRabbitmqApplication.cardTransactionQueueName);
+            container.setMessageListener(cardTransactionListener);
+            container.setAutoStartup(false);
+            return container;
+        }
+
+        @Bean
+        TestRabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory, MessageConverter messageConverter) {
+            TestRabbitTemplate template = new TestRabbitTemplate(connectionFactory);
+            template.setMessageConverter(messageConverter);
+            return template;
+        }
+    }
+
+    @Autowired
+    TestRabbitTemplate rabbitTemplate;
+
+    @Autowired
+    CardTransactionBatchListener listener;
+
+    @Autowired
+    MessageConverter messageConverter;
+
+    @Autowired
+    Channel channel;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void aSingleMessageIsPostedAndAcked() {
+        rabbitTemplate.convertAndSend(MessagingRabbitmqApplication.cardTransactionQueueName,
+                new CardTransaction("top-up-1", 99, 1_000));
+
+        assertThat(amountOf(99)).isEqualTo("133.45");
+        assertThat(postings()).isEqualTo(1);
+    }
+
+    @Test
+    void aBatchIsNettedPerCardAndAckedOnceAfterCommit() throws Exception {
+        listener.onMessageBatch(messages(
+                new CardTransaction("t1", 99, 1_000),
+                new CardTransaction("t2", 99, -250),
+                new CardTransaction("t3", 100, 50),
+                new CardTransaction("t4", 102, -20_000),
+                new CardTransaction("t5", 99, 5)), channel);
+
+        assertThat(amountOf(99)).isEqualTo("131.00");
+        assertThat(amountOf(100)).isEqualTo("1.50");
+        assertThat(amountOf(102)).isEqualTo("0.00");
+        assertThat(postings()).isEqualTo(5);
+        verify(channel).basicAck(5, true);
+    }
+
+    @Test
+    void redeliveredTransactionsAreNotPostedTwice() throws Exception {
+        listener.onMessageBatch(messages(new CardTransaction("t1", 99, 1_000)), channel);
+        listener.onMessageBatch(messages(
+                new CardTransaction("t1", 99, 1_000),
+                new CardTransaction("t2", 99, 1_000),
+                new CardTransaction("t2", 99, 1_000)), channel);
+
+        assertThat(amountOf(99)).isEqualTo("143.45");
+        assertThat(postings()).isEqualTo(2);
+        verify(channel).basicAck(3, true);
+    }
+
+    @Test
+    void aTransactionThatCanNeverBePostedIsRejectedAndTheRestOfItsBatchIsPosted() throws Exception {
+        String tooLongForTheJournal = "x".repeat(65);
+        listener.onMessageBatch(messages(
+                new CardTransaction("t1", 99, 1_000),
+                new CardTransaction(tooLongForTheJournal, 100, 1_000),
+                new CardTransaction("t3", 99, 1_000),
+                new CardTransaction("t4", 102, 500)), channel);
+
+        assertThat(amountOf(99)).isEqualTo("143.45");
+        assertThat(amountOf(100)).isEqualTo("1.00");
+        assertThat(amountOf(102)).isEqualTo("205.00");
+        assertThat(postings()).isEqualTo(3);
+        verify(channel).basicReject(2, false);
+        verify(channel).basicAck(1, false);
+        verify(channel).basicAck(3, false);
+        verify(channel).basicAck(4, false);
+        verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void aBatchThatFailsForAnyOtherReasonIsRolledBackAndRequeued() throws Exception {
+        jdbcTemplate.execute("DROP TABLE card_transaction");
+
+        listener.onMessageBatch(messages(
+                new CardTransaction("t1", 99, 1_000),
+                new CardTransaction("t2", 100, 1_000)), channel);
+
+        assertThat(amountOf(99)).isEqualTo("123.45");
+        verify(channel).basicNack(2, true, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        verify(channel, never()).basicReject(anyLong(), anyBoolean());
+    }
+
+    @Test
+    void somethingElseIsRejectedWithoutHoldingUpTheBatch() throws Exception {
+        List<Message> batch = new ArrayList<>(messages(
+                new CardTransaction("t1", 99, 1_000),
+                new CardTransaction("t2", 99, 1_000)));
+        MessageProperties properties = new MessageProperties();
+        properties.setDeliveryTag(3);
+        batch.add(messageConverter.toMessage("Hello from RabbitMQ!", properties));
+
+        listener.onMessageBatch(batch, channel);
+
+        assertThat(amountOf(99)).isEqualTo("143.45");
+        verify(channel).basicReject(3, false);
+        verify(channel).basicAck(2, true);
+    }
+
+    // Delivery tags 1, 2, 3, ... as the broker would number them on a fresh channel.
+    private List<Message> messages(CardTransaction... transactions) {
+        List<Message> messages = new ArrayList<>();
+        for (CardTransaction transaction : transactions) {
+            MessageProperties properties = new MessageProperties();
+            properties.setDeliveryTag(messages.size() + 1);
+            messages.add(messageConverter.toMessage(transaction, properties));
+        }
+        return messages;
+    }
+
+    private String amountOf(long cardId) {
+        return jdbcTemplate.queryForObject("SELECT AMOUNT FROM cash_card WHERE ID = ?", BigDecimal.class,
+                cardId).setScale(2).toPlainString();
+    }
+
+    private int postings() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM card_transaction", Integer.class);
+    }
+}
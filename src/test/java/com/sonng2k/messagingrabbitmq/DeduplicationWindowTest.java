@@ -0,0 +1,211 @@
+package com.sonng2k.messagingrabbitmq;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Envelope;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeduplicationWindowTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    public void recognizesIdsUntilTheirSliceLeavesTheWindow() {
+        DeduplicationWindow window = window(true, null);
+        long id = DeduplicationWindow.hash("message-1");
+
+        assertThat(window.contains(id)).isFalse();
+        window.add(id);
+        assertThat(window.contains(id)).isTrue();
+
+        now.addAndGet(Duration.ofMinutes(9).toMillis());
+        assertThat(window.contains(id)).isTrue();
+
+        now.addAndGet(Duration.ofMinutes(2).toMillis());
+        assertThat(window.contains(id)).isFalse();
+        assertThat(window.size()).isZero();
+    }
+
+    @Test
+    public void droppingASliceKeepsTheOthersRecognized() {
+        DeduplicationWindow window = window(true, null);
+        long older = DeduplicationWindow.hash("message-1");
+        long newer = DeduplicationWindow.hash("message-2");
+        window.add(older);
+        now.addAndGet(Duration.ofMinutes(5).toMillis());
+        window.add(newer);
+
+        now.addAndGet(Duration.ofMinutes(6).toMillis());
+
+        assertThat(window.contains(older)).isFalse();
+        assertThat(window.contains(newer)).isTrue();
+        assertThat(window.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void worksWithoutTheBloomFilter() {
+        DeduplicationWindow window = window(false, null);
+        for (int i = 0; i < 10_000; i++) {
+            window.add(DeduplicationWindow.hash("message-" + i));
+        }
+
+        assertThat(window.contains(DeduplicationWindow.hash("message-9999"))).isTrue();
+        assertThat(window.contains(DeduplicationWindow.hash("message-10000"))).isFalse();
+    }
+
+    @Test
+    public void snapshotSurvivesARestart(@TempDir Path directory) throws Exception {
+        Path snapshot = directory.resolve("dedup.bin");
+        DeduplicationWindow before = window(true, snapshot);
+        before.add(DeduplicationWindow.hash("message-1"));
+        now.addAndGet(Duration.ofMinutes(3).toMillis());
+        before.add(DeduplicationWindow.hash("message-2"));
+        before.close();
+
+        DeduplicationWindow after = window(true, snapshot);
+
+        assertThat(after.contains(DeduplicationWindow.hash("message-1"))).isTrue();
+        assertThat(after.contains(DeduplicationWindow.hash("message-2"))).isTrue();
+        assertThat(after.contains(DeduplicationWindow.hash("message-3"))).isFalse();
+    }
+
+    @Test
+    public void expiredSlicesAreNotRestored(@TempDir Path directory) throws Exception {
+        Path snapshot = directory.resolve("dedup.bin");
+        DeduplicationWindow before = window(true, snapshot);
+        before.add(DeduplicationWindow.hash("message-1"));
+        before.close();
+
+        now.addAndGet(Duration.ofMinutes(15).toMillis());
+        DeduplicationWindow after = window(true, snapshot);
+
+        assertThat(after.size()).isZero();
+    }
+
+    // A full window: ten one-minute slices of 100,000 IDs each.
+    @Test
+    public void staysWithinItsMemoryBoundPerMillionIds() {
+        DeduplicationWindow window = new DeduplicationWindow(Duration.ofMinutes(10), 10, 100_000, true, null,
+                now::get);
+        for (int i = 0; i < 1_000_000; i++) {
+            if (i > 0 && i % 100_000 == 0) {
+                now.addAndGet(Duration.ofMinutes(1).toMillis());
+            }
+            window.add(DeduplicationWindow.hash("message-" + i));
+        }
+
+        // At most 22 MB for the hash sets and 1.2 MB for the Bloom filters (see DeduplicationWindow).
+        assertThat(window.size()).isEqualTo(1_000_000);
+        assertThat(window.memoryBytes()).isLessThan(24_000_000);
+    }
+
+    @Test
+    public void duplicatesAreSkippedAndFailuresAreNotRemembered() throws Exception {
+        ChannelAwareMessageListener delegate = mock(ChannelAwareMessageListener.class);
+        Channel channel = mock(Channel.class);
+        DeduplicatingMessageListener listener = new DeduplicatingMessageListener(window(true, null), delegate);
+        Message first = message("message-1");
+        Message failing = message("message-2");
+        doThrow(new IllegalStateException("boom")).doNothing().when(delegate).onMessage(failing, channel);
+
+        listener.onMessage(first, channel);
+        listener.onMessage(first, channel);
+        try {
+            listener.onMessage(failing, channel);
+        } catch (IllegalStateException expected) {
+            // retried below
+        }
+        listener.onMessage(failing, channel);
+
+        verify(delegate, times(1)).onMessage(first, channel);
+        verify(delegate, times(2)).onMessage(failing, channel);
+        assertThat(listener.duplicates()).isEqualTo(1);
+    }
+
+    // What the application does: the template and the listener share its converter, and the broker hands every
+    // message out twice. Only the publishing channel is mocked.
+    @Test
+    public void redeliveriesOfMessagesSentThroughTheTemplateAreSkipped() throws Exception {
+        com.rabbitmq.client.ConnectionFactory rabbitConnectionFactory = mock(com.rabbitmq.client.ConnectionFactory.class);
+        Connection connection = mock(Connection.class);
+        Channel channel = mock(Channel.class);
+        when(rabbitConnectionFactory.newConnection(nullable(ExecutorService.class), nullable(String.class)))
+                .thenReturn(connection);
+        when(connection.isOpen()).thenReturn(true);
+        when(connection.createChannel()).thenReturn(channel);
+        when(channel.isOpen()).thenReturn(true);
+        MessagingRabbitmqApplication application = new MessagingRabbitmqApplication();
+        MessageConverter converter = application.messageConverter();
+        RabbitTemplate rabbitTemplate = new RabbitTemplate(new CachingConnectionFactory(rabbitConnectionFactory));
+        rabbitTemplate.setMessageConverter(converter);
+        Receiver receiver = mock(Receiver.class);
+        DeduplicatingMessageListener listener = new DeduplicatingMessageListener(window(true, null),
+                application.listenerAdapter(receiver, converter));
+
+        rabbitTemplate.convertAndSend(MessagingRabbitmqApplication.topicExchangeName, "foo.bar.baz",
+                new HelloMessage(1, "Hello from RabbitMQ!"));
+        rabbitTemplate.convertAndSend(MessagingRabbitmqApplication.topicExchangeName, "foo.bar.baz",
+                "Hello from RabbitMQ!");
+
+        ArgumentCaptor<AMQP.BasicProperties> properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+        ArgumentCaptor<byte[]> bodies = ArgumentCaptor.forClass(byte[].class);
+        verify(channel, times(2)).basicPublish(eq(MessagingRabbitmqApplication.topicExchangeName), eq("foo.bar.baz"),
+                anyBoolean(), properties.capture(), bodies.capture());
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            sent.add(new Message(bodies.getAllValues().get(i), new DefaultMessagePropertiesConverter()
+                    .toMessageProperties(properties.getAllValues().get(i),
+                            new Envelope(i + 1, false, MessagingRabbitmqApplication.topicExchangeName, "foo.bar.baz"),
+                            "UTF-8")));
+        }
+        assertThat(sent).extracting(message -> message.getMessageProperties().getMessageId())
+                .doesNotContainNull()
+                .doesNotHaveDuplicates();
+
+        for (Message message : sent) {
+            listener.onMessage(message, channel);
+            listener.onMessage(message, channel);
+        }
+
+        verify(receiver).receiveMessage(new HelloMessage(1, "Hello from RabbitMQ!"));
+        verify(receiver).receiveMessage("Hello from RabbitMQ!");
+        assertThat(listener.duplicates()).isEqualTo(2);
+    }
+
+    private DeduplicationWindow window(boolean bloomFilter, Path snapshot) {
+        return new DeduplicationWindow(Duration.ofMinutes(10), 10, 1_000, bloomFilter, snapshot, now::get);
+    }
+
+    private static Message message(String messageId) {
+        MessageProperties properties = new MessageProperties();
+        properties.setMessageId(messageId);
+        return new Message(new byte[0], properties);
+    }
+}
@@ -0,0 +1,194 @@
+package com.sonng2k.messagingrabbitmq;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.BeforeEach;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class DelayedRetryTest {
+
+    private final RabbitOperations rabbitOperations = mock(RabbitOperations.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DelayedRetry retry = new DelayedRetry(rabbitOperations, "spring-boot-exchange", "spring-boot",
+            Duration.ofSeconds(1), 4, 3, Duration.ofSeconds(1), meterRegistry);
+
+    // The broker confirms every copy, unless a test says otherwise.
+    @BeforeEach
+    void confirmEverything() {
+        whenSent(correlation -> correlation.getFuture().complete(new CorrelationData.Confirm(true, null)));
+    }
+
+    @Test
+    public void tiersBackOffExponentiallyAndDeadLetterBackToTheQueue() {
+        assertThat(retry.delays())
+                .containsExactly(Duration.ofSeconds(1), Duration.ofSeconds(4), Duration.ofSeconds(16));
+
+        List<Queue> queues = retry.declarables().getDeclarablesByType(Queue.class);
+        assertThat(queues).extracting(Queue::getName)
+                .containsExactly("spring-boot.retry-1", "spring-boot.retry-2", "spring-boot.retry-3",
+                        "spring-boot.parking-lot");
+        assertThat(queues.get(1).getArguments())
+                .containsEntry("x-message-ttl", 4000)
+                .containsEntry("x-dead-letter-exchange", "spring-boot-exchange")
+                .containsEntry("x-dead-letter-routing-key", "spring-boot.retry");
+        assertThat(retry.declarables().getDeclarablesByType(Binding.class)).singleElement()
+                .satisfies(binding -> {
+                    assertThat(binding.getDestination()).isEqualTo("spring-boot");
+                    assertThat(binding.getExchange()).isEqualTo("spring-boot-exchange");
+                    assertThat(binding.getRoutingKey()).isEqualTo("spring-boot.retry");
+                });
+    }
+
+    @Test
+    public void eachFailureGoesToTheNextTierWithItsIdentityKept() {
+        Message message = received("foo.bar.card-7", null);
+
+        assertThat(retry.retry(message, new IllegalStateException("boom"))).isCompleted();
+        Message first = sent("spring-boot.retry-1");
+        MessageProperties properties = first.getMessageProperties();
+        assertThat(first.getBody()).isEqualTo(message.getBody());
+        assertThat(properties.getMessageId()).isEqualTo("message-1");
+        assertThat(properties.getDeliveryMode()).isEqualTo(MessageDeliveryMode.PERSISTENT);
+        assertThat((Object) properties.getHeader(DelayedRetry.RETRY_COUNT_HEADER)).isEqualTo(1);
+        assertThat((Object) properties.getHeader(KeyPartitionedMessageListener.PARTITION_KEY_HEADER))
+                .isEqualTo("foo.bar.card-7");
+        assertThat((Object) properties.getHeader(DelayedRetry.ORIGINAL_ROUTING_KEY_HEADER))
+                .isEqualTo("foo.bar.card-7");
+
+        // Back from the first tier, with the routing key of the dead-letter binding.
+        retry.retry(received("spring-boot.retry", properties), new IllegalStateException("boom"));
+        Message second = sent("spring-boot.retry-2");
+        assertThat(KeyPartitionedMessageListener.partitionKey(second)).isEqualTo("foo.bar.card-7");
+        assertThat((Object) second.getMessageProperties().getHeader(DelayedRetry.ORIGINAL_ROUTING_KEY_HEADER))
+                .isEqualTo("foo.bar.card-7");
+
+        assertThat(meterRegistry.get("messaging.retries").tag("tier", "1").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("messaging.retries").tag("tier", "2").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void aMessageThatFailedEveryTierIsParked() {
+        MessageProperties afterLastTier = new MessageProperties();
+        afterLastTier.setHeader(DelayedRetry.RETRY_COUNT_HEADER, 3);
+
+        assertThat(retry.retry(received("spring-boot.retry", afterLastTier), new IllegalStateException("boom")))
+                .isCompleted();
+
+        Message parked = sent("spring-boot.parking-lot");
+        assertThat((Object) parked.getMessageProperties().getHeader(DelayedRetry.EXCEPTION_HEADER))
+                .isEqualTo("java.lang.IllegalStateException: boom");
+        assertThat(meterRegistry.get("messaging.parked").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void aCopyTheBrokerRefusesIsNotTakenAsRetried() {
+        whenSent(correlation -> correlation.getFuture().complete(new CorrelationData.Confirm(false, "rejected")));
+
+        assertThat(retry.retry(received("foo.bar.card-7", null), new IllegalStateException("boom")))
+                .failsWithin(Duration.ofSeconds(5))
+                .withThrowableOfType(ExecutionException.class)
+                .havingCause()
+                .isInstanceOf(AmqpException.class)
+                .withMessageContaining("rejected");
+        assertThat(meterRegistry.get("messaging.retries").tag("tier", "1").counter().count()).isZero();
+    }
+
+    // E.g. a tier queue that was never declared: the default exchange has nowhere to route the copy to.
+    @Test
+    public void aCopyTheBrokerReturnsIsNotTakenAsRetried() {
+        whenSent(correlation -> {
+            Message copy = new Message(new byte[0], new MessageProperties());
+            correlation.setReturned(new ReturnedMessage(copy, 312, "NO_ROUTE", "", "spring-boot.retry-1"));
+            correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+        });
+
+        assertThat(retry.retry(received("foo.bar.card-7", null), new IllegalStateException("boom")))
+                .failsWithin(Duration.ofSeconds(5))
+                .withThrowableOfType(ExecutionException.class)
+                .havingCause()
+                .isInstanceOf(AmqpException.class)
+                .withMessageContaining("NO_ROUTE");
+    }
+
+    // retry() returns before the confirm arrives, so the calling thread never waits for the broker.
+    @Test
+    public void aCopyThatIsNeverConfirmedIsNotTakenAsRetried() {
+        whenSent(correlation -> {
+        });
+
+        CompletableFuture<Void> retried = retry.retry(received("foo.bar.card-7", null),
+                new IllegalStateException("boom"));
+
+        assertThat(retried).isNotDone();
+        assertThat(retried)
+                .failsWithin(Duration.ofSeconds(5))
+                .withThrowableOfType(ExecutionException.class)
+                .havingCause()
+                .isInstanceOf(AmqpException.class)
+                .withMessageContaining("in time");
+        assertThat(meterRegistry.get("messaging.retries").tag("tier", "1").counter().count()).isZero();
+    }
+
+    @Test
+    public void aCopyThatCannotBeSentIsNotTakenAsRetried() {
+        doThrow(new AmqpConnectException(new IOException("broker down")))
+                .when(rabbitOperations).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+
+        assertThat(retry.retry(received("foo.bar.card-7", null), new IllegalStateException("boom")))
+                .isCompletedExceptionally();
+    }
+
+    private void whenSent(Consumer<CorrelationData> broker) {
+        doAnswer(invocation -> {
+            broker.accept(invocation.getArgument(3));
+            return null;
+        }).when(rabbitOperations).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+    }
+
+    private Message sent(String queue) {
+        ArgumentCaptor<Message> sent = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitOperations).send(eq(""), eq(queue), sent.capture(), any(CorrelationData.class));
+        return sent.getValue();
+    }
+
+    private static Message received(String routingKey, MessageProperties previous) {
+        MessageProperties properties = new MessageProperties();
+        if (previous != null) {
+            properties.getHeaders().putAll(previous.getHeaders());
+        }
+        properties.setMessageId("message-1");
+        properties.setReceivedRoutingKey(routingKey);
+        // As the container hands it over: the mode it was sent with is only in receivedDeliveryMode.
+        properties.setDeliveryMode(null);
+        properties.setReceivedDeliveryMode(MessageDeliveryMode.PERSISTENT);
+        properties.setDeliveryTag(7);
+        return new Message("hello".getBytes(StandardCharsets.UTF_8), properties);
+    }
+}
@@ -0,0 +1,229 @@
+package com.sonng2k.messagingrabbitmq;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class KeyPartitionedDispatcherTest {
+
+    private KeyPartitionedDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void tasksWithTheSameKeyRunInDispatchOrder() throws InterruptedException {
+        dispatcher = new KeyPartitionedDispatcher("test", 4, 8);
+        Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "card-" + (i % 10);
+            int sequence = i;
+            dispatcher.dispatch(key, () -> seen.computeIfAbsent(key, k -> new ArrayList<>()).add(sequence));
+        }
+        dispatcher.close();
+        dispatcher = null;
+
+        assertThat(seen).hasSize(10);
+        seen.values().forEach(sequences -> assertThat(sequences).isSorted().hasSize(100));
+    }
+
+    @Test
+    public void aBlockedKeyDoesNotHoldUpOtherLanes() throws InterruptedException {
+        dispatcher = new KeyPartitionedDispatcher("test", 4, 8);
+        String slowKey = "slow";
+        String fastKey = keyOnAnotherLane(slowKey);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch fastDone = new CountDownLatch(1);
+
+        dispatcher.dispatch(slowKey, () -> await(release));
+        dispatcher.dispatch(fastKey, fastDone::countDown);
+
+        assertThat(fastDone.await(5, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+    }
+
+    @Test
+    public void dispatchBlocksWhileTheLaneIsFull() throws Exception {
+        dispatcher = new KeyPartitionedDispatcher("test", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        dispatcher.dispatch("key", () -> {
+            started.countDown();
+            await(release);
+        });
+        started.await();
+        dispatcher.dispatch("key", () -> {
+        });
+        CompletableFuture<Void> third = CompletableFuture.runAsync(() -> {
+            try {
+                dispatcher.dispatch("key", () -> {
+                });
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        Thread.sleep(200);
+        assertThat(third).isNotDone();
+        release.countDown();
+        third.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void aLaneSurvivesATaskThatThrowsAnError() throws InterruptedException {
+        dispatcher = new KeyPartitionedDispatcher("test", 1, 1);
+        CountDownLatch next = new CountDownLatch(1);
+
+        dispatcher.dispatch("key", () -> {
+            throw new StackOverflowError("boom");
+        });
+        dispatcher.dispatch("key", next::countDown);
+
+        assertThat(next.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void listenerRetriesADeliveryWhoseProcessingThrowsAnError() throws Exception {
+        dispatcher = new KeyPartitionedDispatcher("test", 1, 8);
+        ChannelAwareMessageListener delegate = mock(ChannelAwareMessageListener.class);
+        DelayedRetry retry = mock(DelayedRetry.class);
+        Channel channel = mock(Channel.class);
+        KeyPartitionedMessageListener listener = new KeyPartitionedMessageListener(dispatcher, delegate, retry);
+        Message failing = message(1, "foo.bar.failing");
+        AssertionError failure = new AssertionError("boom");
+        doThrow(failure).when(delegate).onMessage(failing, channel);
+        given(retry.retry(failing, failure)).willReturn(CompletableFuture.completedFuture(null));
+
+        listener.onMessage(failing, channel);
+
+        verify(retry, timeout(5000)).retry(failing, failure);
+        verify(channel, timeout(5000)).basicAck(1, false);
+    }
+
+    @Test
+    public void listenerAcksAfterProcessingAndHandsFailuresToTheRetry() throws Exception {
+        dispatcher = new KeyPartitionedDispatcher("test", 2, 8);
+        ChannelAwareMessageListener delegate = mock(ChannelAwareMessageListener.class);
+        DelayedRetry retry = mock(DelayedRetry.class);
+        Channel channel = mock(Channel.class);
+        KeyPartitionedMessageListener listener = new KeyPartitionedMessageListener(dispatcher, delegate, retry);
+
+        Message ok = message(1, "foo.bar.ok");
+        Message failing = message(2, "foo.bar.failing");
+        IllegalStateException failure = new IllegalStateException("boom");
+        doThrow(failure).when(delegate).onMessage(failing, channel);
+        given(retry.retry(failing, failure)).willReturn(CompletableFuture.completedFuture(null));
+
+        listener.onMessage(ok, channel);
+        listener.onMessage(failing, channel);
+
+        verify(channel, timeout(5000)).basicAck(1, false);
+        verify(retry, timeout(5000)).retry(failing, failure);
+        verify(channel, timeout(5000)).basicAck(2, false);
+        verify(delegate, timeout(5000)).onMessage(ok, channel);
+    }
+
+    @Test
+    public void listenerRequeuesAFailureItCannotHandToTheRetry() throws Exception {
+        dispatcher = new KeyPartitionedDispatcher("test", 2, 8);
+        ChannelAwareMessageListener delegate = mock(ChannelAwareMessageListener.class);
+        DelayedRetry retry = mock(DelayedRetry.class);
+        Channel channel = mock(Channel.class);
+        KeyPartitionedMessageListener listener = new KeyPartitionedMessageListener(dispatcher, delegate, retry);
+
+        Message failing = message(1, "foo.bar.failing");
+        doThrow(new IllegalStateException("boom")).when(delegate).onMessage(failing, channel);
+        given(retry.retry(eq(failing), any()))
+                .willReturn(CompletableFuture.failedFuture(new AmqpConnectException(new IOException("broker down"))));
+
+        listener.onMessage(failing, channel);
+
+        verify(channel, timeout(5000)).basicNack(1, false, true);
+    }
+
+    // The lane goes on with the next message of the key while the broker hasn't confirmed the retry copy yet.
+    @Test
+    public void listenerSettlesARetriedDeliveryWhenItsCopyIsConfirmed() throws Exception {
+        dispatcher = new KeyPartitionedDispatcher("test", 1, 8);
+        ChannelAwareMessageListener delegate = mock(ChannelAwareMessageListener.class);
+        DelayedRetry retry = mock(DelayedRetry.class);
+        Channel channel = mock(Channel.class);
+        KeyPartitionedMessageListener listener = new KeyPartitionedMessageListener(dispatcher, delegate, retry);
+        Message failing = message(1, "foo.bar.card-7");
+        Message next = message(2, "foo.bar.card-7");
+        doThrow(new IllegalStateException("boom")).when(delegate).onMessage(failing, channel);
+        CompletableFuture<Void> confirmed = new CompletableFuture<>();
+        given(retry.retry(eq(failing), any())).willReturn(confirmed);
+
+        listener.onMessage(failing, channel);
+        listener.onMessage(next, channel);
+
+        verify(channel, timeout(5000)).basicAck(2, false);
+        verify(channel, never()).basicAck(1, false);
+
+        confirmed.complete(null);
+
+        verify(channel).basicAck(1, false);
+    }
+
+    @Test
+    public void partitionKeyHeaderWinsOverTheRoutingKey() {
+        Message message = message(1, "foo.bar.baz");
+        assertThat(KeyPartitionedMessageListener.partitionKey(message)).isEqualTo("foo.bar.baz");
+
+        message.getMessageProperties().setHeader(KeyPartitionedMessageListener.PARTITION_KEY_HEADER, "card-7");
+        assertThat(KeyPartitionedMessageListener.partitionKey(message)).isEqualTo("card-7");
+    }
+
+    private String keyOnAnotherLane(String key) {
+        for (int i = 0; ; i++) {
+            if (dispatcher.laneFor("other-" + i) != dispatcher.laneFor(key)) {
+                return "other-" + i;
+            }
+        }
+    }
+
+    private static Message message(long deliveryTag, String routingKey) {
+        MessageProperties properties = new MessageProperties();
+        properties.setDeliveryTag(deliveryTag);
+        properties.setReceivedRoutingKey(routingKey);
+        return new Message(new byte[0], properties);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
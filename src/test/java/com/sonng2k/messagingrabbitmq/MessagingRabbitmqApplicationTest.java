@@ -26,6 +26,8 @@ public class MessagingRabbitmqApplicationTest {
         try {
             rabbitTemplate.convertAndSend(MessagingRabbitmqApplication.queueName,
                     "Hello from RabbitMQ!");
+            rabbitTemplate.convertAndSend(MessagingRabbitmqApplication.queueName,
+                    new HelloMessage(1, "Hello from RabbitMQ!"));
             receiver.getLatch().await(10000, TimeUnit.MILLISECONDS);
         } catch (AmqpConnectException e) {
             // ignore - rabbit is not running
@@ -0,0 +1,86 @@
+package com.sonng2k.messagingrabbitmq;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RecordMessageConverterTest {
+
+    record Everything(long l, int i, short s, byte b, double d, float f, boolean flag, char c,
+                      Long boxed, String text, byte[] bytes) {
+    }
+
+    private final RecordMessageConverter converter = new RecordMessageConverter()
+            .register(1, HelloMessage.class)
+            .register(2, Everything.class);
+
+    @Test
+    public void recordRoundTripsThroughTheBinaryLayout() {
+        Message message = converter.toMessage(new HelloMessage(42, "Hello from RabbitMQ!"), new MessageProperties());
+
+        assertThat(message.getMessageProperties().getContentType()).isEqualTo(RecordMessageConverter.CONTENT_TYPE);
+        // type id (1) + sequence (8) + presence flag (1) + length (1) + 20 UTF-8 bytes
+        assertThat(message.getBody()).hasSize(31);
+        assertThat(converter.fromMessage(message)).isEqualTo(new HelloMessage(42, "Hello from RabbitMQ!"));
+    }
+
+    @Test
+    public void everySupportedComponentTypeRoundTrips() {
+        Everything everything = new Everything(Long.MIN_VALUE, -7, (short) 300, (byte) -1, Math.PI, 1.5f, true, '\u00e9',
+                null, "na\u00efve \uD83D\uDE00 \u20AC", new byte[]{1, 2, 3});
+
+        Everything decoded = (Everything) converter.fromMessage(converter.toMessage(everything, new MessageProperties()));
+
+        assertThat(decoded).usingRecursiveComparison().ignoringFields("bytes").isEqualTo(everything);
+        assertThat(decoded.bytes()).containsExactly(1, 2, 3);
+        assertThat(decoded.text().getBytes(StandardCharsets.UTF_8))
+                .isEqualTo(everything.text().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void stringsAreEncodedLikeStringGetBytes() {
+        String text = "lone \uD83D and \uDE00, paired \uD83D\uDE00, \u00e9\u20AC";
+        BinaryWriter writer = new BinaryWriter(0);
+
+        writer.writeString(text);
+
+        byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+        byte[] written = writer.toByteArray();
+        assertThat(written[0]).isEqualTo((byte) expected.length);
+        assertThat(Arrays.copyOfRange(written, 1, written.length)).isEqualTo(expected);
+    }
+
+    @Test
+    public void stringsKeepTheirTextFormat() {
+        Message message = converter.toMessage("Hello from RabbitMQ!", new MessageProperties());
+
+        assertThat(message.getMessageProperties().getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_TEXT_PLAIN);
+        assertThat(converter.fromMessage(message)).isEqualTo("Hello from RabbitMQ!");
+    }
+
+    @Test
+    public void unknownTypeIdsAndTruncatedBodiesAreRejected() {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(RecordMessageConverter.CONTENT_TYPE);
+
+        assertThatThrownBy(() -> converter.fromMessage(new Message(new byte[]{9}, properties)))
+                .isInstanceOf(MessageConversionException.class);
+
+        byte[] body = converter.toMessage(new HelloMessage(1, "Hello"), new MessageProperties()).getBody();
+        assertThatThrownBy(() -> converter.fromMessage(new Message(Arrays.copyOf(body, body.length - 1), properties)))
+                .isInstanceOf(MessageConversionException.class);
+    }
+
+    @Test
+    public void typeIdsAndTypesCanOnlyBeRegisteredOnce() {
+        assertThatThrownBy(() -> converter.register(1, Everything.class)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> converter.register(3, HelloMessage.class)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
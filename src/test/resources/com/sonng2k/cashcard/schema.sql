@@ -1,6 +1,22 @@
+-- IDs are assigned by CashCardIdGenerator rather than an IDENTITY column, so they stay unique when the table is
+-- split over several shards.
 CREATE TABLE cash_card
 (
-    ID     BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    ID     BIGINT       NOT NULL PRIMARY KEY,
     AMOUNT NUMBER       NOT NULL DEFAULT 0,
     OWNER  VARCHAR(256) NOT NULL
-);
\ No newline at end of file
+);
+
+-- Every query is scoped by OWNER, and CashCardController.SORTABLE_PROPERTIES may only name a property that has
+-- an (OWNER, <property>) index here, so a page is always read from an index range instead of the whole table.
+CREATE INDEX cash_card_owner_amount_idx ON cash_card (OWNER, AMOUNT);
+CREATE INDEX cash_card_owner_id_idx ON cash_card (OWNER, ID);
+
+-- Every card transaction posted from RabbitMQ (see CardTransactionBatchListener). The primary key is what makes a
+-- redelivered transaction a no-op.
+CREATE TABLE card_transaction
+(
+    TRANSACTION_ID VARCHAR(64) NOT NULL PRIMARY KEY,
+    CARD_ID        BIGINT      NOT NULL,
+    AMOUNT         NUMBER      NOT NULL
+);